@@ -0,0 +1,66 @@
+package com.example.adrialwalters.inventoryapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times measured by a performance test, in nanoseconds, and their percentiles.
+ */
+public final class LatencySamples {
+
+    private final List<Long> mNanos = new ArrayList<>();
+
+    /** The samples in order, or null if one was added since they were last sorted */
+    private List<Long> mSorted;
+
+    public void add(long nanos) {
+        mNanos.add(nanos);
+        mSorted = null;
+    }
+
+    public int size() {
+        return mNanos.size();
+    }
+
+    /**
+     * Returns the smallest sample that the given percentage of the samples is not larger than.
+     */
+    public long percentile(int percentile) {
+        if (mSorted == null) {
+            mSorted = new ArrayList<>(mNanos);
+            Collections.sort(mSorted);
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * mSorted.size()) - 1;
+        return mSorted.get(Math.max(0, Math.min(index, mSorted.size() - 1)));
+    }
+
+    /**
+     * Returns the number of samples larger than the given time.
+     */
+    public int countAbove(long nanos) {
+        int count = 0;
+        for (long sample : mNanos) {
+            if (sample > nanos) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Describes the percentiles for the log, like "p50=12 p90=34", in the given unit.
+     */
+    public String describe(TimeUnit unit, int... percentiles) {
+        StringBuilder description = new StringBuilder();
+        for (int percentile : percentiles) {
+            if (description.length() > 0) {
+                description.append(' ');
+            }
+            description.append('p').append(percentile).append('=')
+                    .append(unit.convert(percentile(percentile), TimeUnit.NANOSECONDS));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scroll benchmark of the product list. Scrolls through a long list of products that all have
+ * their own thumbnail and measures the time between frames and the time spent binding rows in
+ * every frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductListScrollTest {
+
+    private static final String TAG = ProductListScrollTest.class.getSimpleName();
+
+    /** Products in the list, every one with a different thumbnail */
+    private static final int PRODUCTS = 2000;
+
+    /** Distance scrolled every frame, about a fast fling */
+    private static final int SCROLL_DP_PER_FRAME = 60;
+
+    /** Frames scrolled before the measurement stops if the end wasn't reached */
+    private static final int MAX_FRAMES = 3000;
+
+    /** Frames longer than this missed at least one vsync on a 60 Hz display */
+    private static final long JANK_FRAME_NS = 2 * 16666667L;
+
+    @Rule
+    public ActivityTestRule<InventoryActivity> mActivityRule =
+            new ActivityTestRule<>(InventoryActivity.class, false, false);
+
+    private Context mContext;
+
+    private File mImageFile;
+
+    private SavedProducts mSavedProducts;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        ContentResolver resolver = mContext.getContentResolver();
+        mSavedProducts = SavedProducts.save(mContext, TAG);
+
+        mImageFile = new File(mContext.getCacheDir(), "scroll_test.jpg");
+        writeImage(mImageFile);
+
+        // The query parameter gives every product its own cache key for the same file
+        ContentValues[] products = new ContentValues[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = new ContentValues();
+            products[i].put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand " + (i % 50));
+            products[i].put(ProductEntry.COLUMN_PRODUCT_MODEL, "Model " + i);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 1000);
+            products[i].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            products[i].put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % 20));
+            products[i].put(ProductEntry.COLUMN_STRING_IMAGE_URI, Uri.fromFile(mImageFile)
+                    .buildUpon().appendQueryParameter("v", String.valueOf(i)).build().toString());
+        }
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, products);
+    }
+
+    @After
+    public void tearDown() {
+        if (mSavedProducts != null) {
+            mSavedProducts.restore();
+        }
+        if (mImageFile != null) {
+            mImageFile.delete();
+        }
+    }
+
+    @Test
+    public void scrolling_keepsFrameTimes() throws Exception {
+        InventoryActivity activity = mActivityRule.launchActivity(null);
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.waitForIdleSync();
+
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.list);
+        final ProductListAdapter adapter = (ProductListAdapter) recyclerView.getAdapter();
+        final int step = Math.round(SCROLL_DP_PER_FRAME
+                * activity.getResources().getDisplayMetrics().density);
+        final LatencySamples frameTimes = new LatencySamples();
+        final LatencySamples bindTimes = new LatencySamples();
+        final int[] boundRows = new int[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        long gcCountBefore = getGcCount();
+
+        // Scroll by the same distance every frame, and record when each frame started and how
+        // long the rows bound in the previous frame took
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final int firstBindCount = adapter.getBindCount();
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    private long mLastFrameTimeNanos;
+                    private long mLastBindTimeNanos = adapter.getBindTimeNanos();
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (mLastFrameTimeNanos != 0) {
+                            frameTimes.add(frameTimeNanos - mLastFrameTimeNanos);
+                            bindTimes.add(adapter.getBindTimeNanos() - mLastBindTimeNanos);
+                        }
+                        mLastFrameTimeNanos = frameTimeNanos;
+                        mLastBindTimeNanos = adapter.getBindTimeNanos();
+
+                        boolean atEnd = !recyclerView.canScrollVertically(1);
+                        if (atEnd || frameTimes.size() >= MAX_FRAMES) {
+                            boundRows[0] = adapter.getBindCount() - firstBindCount;
+                            done.countDown();
+                            return;
+                        }
+                        recyclerView.scrollBy(0, step);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                });
+            }
+        });
+        assertTrue("Scrolling didn't finish", done.await(5, TimeUnit.MINUTES));
+
+        int jankFrames = frameTimes.countAbove(JANK_FRAME_NS);
+        long p90 = frameTimes.percentile(90);
+        long bindP99 = bindTimes.percentile(99);
+        Log.i(TAG, "Frame time in us over " + frameTimes.size() + " frames, " +
+                frameTimes.describe(TimeUnit.MICROSECONDS, 50, 90, 99) + ", janky frames=" +
+                jankFrames + ", GCs=" + (getGcCount() - gcCountBefore));
+        Log.i(TAG, "Bind time per frame in us, " + bindTimes.describe(TimeUnit.MICROSECONDS, 50, 99) +
+                " for " + boundRows[0] + " rows");
+
+        assertTrue("Too few frames were measured", frameTimes.size() >= 100);
+
+        // Binding only sets values, it must take a small part of the frame
+        assertTrue("p99 bind time per frame was " + bindP99 / 1000 + "us", bindP99 < JANK_FRAME_NS / 8);
+
+        // Binding a row must never wait for its image, so at most a few frames may be late
+        assertTrue("p90 frame time was " + p90 / 1000 + "us", p90 <= JANK_FRAME_NS);
+        assertTrue(jankFrames + " of " + frameTimes.size() + " frames were late",
+                jankFrames * 20 <= frameTimes.size());
+    }
+
+    /**
+     * Writes a photo sized image, so every thumbnail has to be sampled down.
+     */
+    private static void writeImage(File file) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(1600, 1200, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.DKGRAY);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Returns the number of garbage collections so far, or 0 where the runtime doesn't say.
+     */
+    private static long getGcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return 0;
+        }
+        String count = Debug.getRuntimeStat("art.gc.gc-count");
+        return count != null ? Long.parseLong(count) : 0;
+    }
+}
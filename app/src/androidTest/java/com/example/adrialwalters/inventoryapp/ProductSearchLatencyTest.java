@@ -0,0 +1,207 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from the last keystroke to the search results on a large catalog, and
+ * checks that the queries of text that was typed over are cancelled and never shown.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSearchLatencyTest {
+
+    private static final String TAG = ProductSearchLatencyTest.class.getSimpleName();
+
+    private static final int PRODUCTS = 100000;
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /** Time between keystrokes of a fast typist */
+    private static final long KEYSTROKE_MS = 60;
+
+    /** Texts typed one character at a time */
+    private static final String[] TEXTS = {
+            "model 4242", "brand 7", "supplier 13", "model 99", "brand 42 model 1234",
+            "supp", "model 5", "brand 3 supplier 2", "model 77777", "mod"};
+
+    /** Longest accepted time from the last keystroke to the results, including the debounce */
+    private static final long MAX_P90_LATENCY_MS = ProductSearch.DEBOUNCE_MS + 350;
+
+    private Context mContext;
+
+    private Instrumentation mInstrumentation;
+
+    private ProductSearch mSearch;
+
+    private SavedProducts mSavedProducts;
+
+    /** Results delivered by the search, in order */
+    private final BlockingQueue<String> mResultTexts = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        ContentResolver resolver = mContext.getContentResolver();
+        mSavedProducts = SavedProducts.save(mContext, TAG);
+
+        ContentValues[] batch = new ContentValues[INSERT_BATCH_SIZE];
+        for (int i = 0; i < PRODUCTS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand " + (i % 50));
+            values.put(ProductEntry.COLUMN_PRODUCT_MODEL, "Model " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 + i % 1000);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % 20));
+            batch[i % INSERT_BATCH_SIZE] = values;
+            if (i % INSERT_BATCH_SIZE == INSERT_BATCH_SIZE - 1) {
+                resolver.bulkInsert(ProductEntry.CONTENT_URI, batch);
+            }
+        }
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSearch = new ProductSearch(mContext.getContentResolver(), new ProductSearch.Listener() {
+                    @Override
+                    public void onSearchResults(String text, List<Product> products) {
+                        if (products != null) {
+                            mResultTexts.add(text);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (mSearch != null) {
+                    mSearch.cancel();
+                }
+            }
+        });
+        if (mSavedProducts != null) {
+            mSavedProducts.restore();
+        }
+    }
+
+    @Test
+    public void typing_showsOnlyLastTextWithinBudget() throws Exception {
+        LatencySamples latencies = new LatencySamples();
+        for (String text : TEXTS) {
+            type(text, KEYSTROKE_MS);
+
+            // Only the text typed last is searched, the prefixes are typed over
+            String resultText = mResultTexts.poll(10, TimeUnit.SECONDS);
+            assertEquals(text, resultText);
+            latencies.add(getLatencyNanos());
+            clear();
+        }
+
+        long p90 = TimeUnit.NANOSECONDS.toMillis(latencies.percentile(90));
+        Log.i(TAG, "Keystroke to results in ms over " + PRODUCTS + " products, " +
+                latencies.describe(TimeUnit.MILLISECONDS, 50, 90) +
+                " (debounce " + ProductSearch.DEBOUNCE_MS + ")");
+        assertTrue("p90 keystroke to results was " + p90 + "ms", p90 <= MAX_P90_LATENCY_MS);
+    }
+
+    @Test
+    public void slowTyping_cancelsRunningQueries() throws Exception {
+        // Pause just past the debounce, so every prefix starts a query that the next key
+        // typed over. Short prefixes match most of the catalog and take the longest.
+        press("m");
+        Thread.sleep(ProductSearch.DEBOUNCE_MS + 10);
+        press("mo");
+        Thread.sleep(ProductSearch.DEBOUNCE_MS + 10);
+        press("mod");
+        press("mode");
+        press("model");
+
+        String resultText;
+        List<String> resultTexts = new ArrayList<>();
+        while ((resultText = mResultTexts.poll(10, TimeUnit.SECONDS)) != null) {
+            resultTexts.add(resultText);
+            if (resultText.equals("model")) {
+                break;
+            }
+        }
+        assertEquals("model", resultTexts.get(resultTexts.size() - 1));
+
+        int cancelled = getCancelledCount();
+        Log.i(TAG, cancelled + " queries cancelled, results shown for " + resultTexts);
+        // A prefix is either cancelled or answered before the next key, never both
+        assertEquals(2, cancelled + resultTexts.size() - 1);
+    }
+
+    /**
+     * Types the text one character at a time, pausing between keys.
+     */
+    private void type(String text, long pauseMs) throws InterruptedException {
+        for (int i = 1; i <= text.length(); i++) {
+            press(text.substring(0, i));
+            Thread.sleep(pauseMs);
+        }
+    }
+
+    /**
+     * Sets the text of the search as a key press would.
+     */
+    private void press(final String text) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSearch.setText(text);
+            }
+        });
+    }
+
+    private void clear() {
+        press("");
+    }
+
+    private long getLatencyNanos() {
+        final long[] latency = new long[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                latency[0] = mSearch.getLastLatencyNanos();
+            }
+        });
+        return latency[0];
+    }
+
+    private int getCancelledCount() {
+        final int[] count = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = mSearch.getCancelledCount();
+            }
+        });
+        return count[0];
+    }
+}
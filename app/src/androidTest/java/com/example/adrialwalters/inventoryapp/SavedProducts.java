@@ -0,0 +1,59 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.File;
+
+/**
+ * Moves the products of the app's database out of the way of a test that fills the database with
+ * its own. {@link #save} snapshots them through the provider and empties the table, and
+ * {@link #restore} puts them back.
+ */
+final class SavedProducts {
+
+    private final ContentResolver mResolver;
+
+    private final File mSnapshot;
+
+    private SavedProducts(ContentResolver resolver, File snapshot) {
+        mResolver = resolver;
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * Saves the products and empties the table. The snapshot is named after the test, and if an
+     * earlier run of it was killed before restoring, its products are put back first.
+     */
+    static SavedProducts save(Context targetContext, String testName) {
+        ContentResolver resolver = targetContext.getContentResolver();
+        File snapshot = new File(targetContext.getFilesDir(), testName + "-products.db");
+        if (snapshot.exists()) {
+            call(resolver, InventoryContract.METHOD_RESTORE, snapshot);
+        }
+        call(resolver, InventoryContract.METHOD_BACKUP, snapshot);
+        resolver.delete(ProductEntry.CONTENT_URI, null, null);
+        return new SavedProducts(resolver, snapshot);
+    }
+
+    /**
+     * Replaces whatever the test left with the saved products, then deletes the snapshot.
+     */
+    void restore() {
+        call(mResolver, InventoryContract.METHOD_RESTORE, mSnapshot);
+        SQLiteDatabase.deleteDatabase(mSnapshot);
+    }
+
+    private static void call(ContentResolver resolver, String method, File snapshot) {
+        Bundle result = resolver.call(ProductEntry.CONTENT_URI, method, snapshot.getPath(), null);
+        if (result == null || result.containsKey(InventoryContract.EXTRA_ERROR)) {
+            throw new IllegalStateException(method + " of " + snapshot + " failed: "
+                    + (result != null ? result.getString(InventoryContract.EXTRA_ERROR) : null));
+        }
+    }
+}
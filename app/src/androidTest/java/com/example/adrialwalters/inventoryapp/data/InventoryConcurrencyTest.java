@@ -0,0 +1,149 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.adrialwalters.inventoryapp.LatencySamples;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test showing that point reads keep their latency while a large bulk write is running
+ * on another thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryConcurrencyTest {
+
+    private static final String TAG = InventoryConcurrencyTest.class.getSimpleName();
+
+    /** Rows in the table before the test starts */
+    private static final int SEED_ROWS = 5000;
+
+    /** Rows written by the bulk write running in the background */
+    private static final int BULK_ROWS = 100000;
+
+    /** Reads used to measure the latency without a concurrent write */
+    private static final int IDLE_READS = 500;
+
+    private Context mContext;
+
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test_");
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        mDbHelper = new InventoryDbHelper(mContext);
+        insertProducts(mDbHelper.getWritableDatabase(), SEED_ROWS, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void readLatency_staysFlatDuringBulkWrite() throws Exception {
+        Random random = new Random(5);
+        LatencySamples idle = new LatencySamples();
+        for (int i = 0; i < IDLE_READS; i++) {
+            idle.add(timeRead(random));
+        }
+
+        // Start one long write transaction in the background
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                insertProducts(mDbHelper.getWritableDatabase(), BULK_ROWS, writeStarted);
+            }
+        });
+        writer.start();
+        writeStarted.await();
+
+        // Keep reading for as long as the write is running
+        LatencySamples busy = new LatencySamples();
+        while (writer.isAlive()) {
+            busy.add(timeRead(random));
+        }
+        writer.join();
+
+        long idleP95 = idle.percentile(95);
+        long busyP95 = busy.percentile(95);
+        Log.i(TAG, "Read latency in us, idle " + idle.describe(TimeUnit.MICROSECONDS, 50, 95) +
+                ", during bulk write " + busy.describe(TimeUnit.MICROSECONDS, 50, 95) +
+                " (" + busy.size() + " reads)");
+
+        assertTrue("Too few reads ran during the write", busy.size() >= 50);
+
+        // Readers may share the CPU with the writer, but must never wait for its transaction
+        long limit = Math.max(idleP95 * 5, 20000000L);
+        assertTrue("p95 read latency during write was " + busyP95 / 1000 + "us", busyP95 < limit);
+    }
+
+    /**
+     * Reads one random product and returns how long it took in nanoseconds.
+     */
+    private long timeRead(Random random) {
+        String id = String.valueOf(1 + random.nextInt(SEED_ROWS));
+        long start = System.nanoTime();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME, null,
+                ProductEntry._ID + " = ?", new String[] { id }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Inserts the given number of products in a single transaction.
+     */
+    private static void insertProducts(SQLiteDatabase database, int count, CountDownLatch started) {
+        database.beginTransactionNonExclusive();
+        SQLiteStatement statement = null;
+        try {
+            statement = database.compileStatement("INSERT INTO " + ProductEntry.TABLE_NAME + " (" +
+                    ProductEntry.COLUMN_PRODUCT_BRAND + ", " +
+                    ProductEntry.COLUMN_PRODUCT_MODEL + ", " +
+                    ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                    ProductEntry.COLUMN_SUPPLIER_NAME + ") VALUES (?, ?, ?, ?, ?)");
+            if (started != null) {
+                started.countDown();
+            }
+            for (int i = 0; i < count; i++) {
+                statement.bindString(1, "Brand " + (i % 50));
+                statement.bindString(2, "Model " + i);
+                statement.bindLong(3, 10 + i % 1000);
+                statement.bindLong(4, i % 100);
+                statement.bindString(5, "Supplier " + (i % 20));
+                statement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            database.endTransaction();
+        }
+    }
+}
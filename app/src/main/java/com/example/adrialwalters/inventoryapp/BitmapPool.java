@@ -0,0 +1,93 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bitmaps that are no longer shown or cached, kept so that their memory can be decoded into
+ * again with {@link BitmapFactory.Options#inBitmap} instead of being garbage collected.
+ *
+ * Thumbnails of the list all come from the same bucket, so most of them can reuse each other.
+ * Before KitKat a bitmap can only be reused for an image of exactly the same size that is
+ * decoded without sampling, afterwards any bitmap that is large enough will do.
+ */
+class BitmapPool {
+
+    /** Bitmaps in the pool, the most recently added last */
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+
+    private final long mMaxBytes;
+
+    private long mBytes;
+
+    /**
+     * @param maxBytes the maximum number of bytes kept, older bitmaps are dropped past it
+     */
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a bitmap that nothing refers to anymore. Immutable bitmaps can't be decoded into and
+     * are left to the garbage collector.
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || getByteCount(bitmap) > mMaxBytes) {
+            return;
+        }
+
+        mBitmaps.add(bitmap);
+        mBytes += getByteCount(bitmap);
+        while (mBytes > mMaxBytes) {
+            mBytes -= getByteCount(mBitmaps.remove(0));
+        }
+    }
+
+    /**
+     * Sets {@link BitmapFactory.Options#inBitmap} to a pooled bitmap that the image described by
+     * the options can be decoded into, and removes it from the pool. The options must hold the
+     * size of the image, as read with {@link BitmapFactory.Options#inJustDecodeBounds}, and the
+     * sample size it will be decoded with.
+     */
+    synchronized void addInBitmapOptions(BitmapFactory.Options options) {
+        options.inMutable = true;
+
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        // Prefer the most recently added bitmap, it is the least likely to be paged out
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap candidate = mBitmaps.get(i);
+            if (canDecodeInto(candidate, width, height, sampleSize)) {
+                mBitmaps.remove(i);
+                mBytes -= getByteCount(candidate);
+                options.inBitmap = candidate;
+                return;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return mBitmaps.size();
+    }
+
+    private static boolean canDecodeInto(Bitmap candidate, int width, int height, int sampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Decoded images keep their config, which is ARGB_8888 for all thumbnails
+            return width * height * 4 <= candidate.getAllocationByteCount();
+        }
+        return sampleSize == 1 && candidate.getWidth() == width && candidate.getHeight() == height;
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
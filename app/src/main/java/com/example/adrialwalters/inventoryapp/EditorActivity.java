@@ -2,14 +2,14 @@ package com.example.adrialwalters.inventoryapp;
 
 import android.app.Activity;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -18,7 +18,6 @@ import android.support.v4.app.NavUtils;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -28,11 +27,14 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
 import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 
 public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
@@ -43,12 +45,21 @@ public class EditorActivity extends AppCompatActivity implements
     /** Pick image request code */
     private static final int PICK_IMAGE_REQUEST = 1;
 
+    /** Saved state key, the quantity the typed change is counted from */
+    private static final String STATE_SHOWN_QUANTITY = "shown_quantity";
+
     /** Content URI for the existing product (null if it's a new product) */
     private Uri mCurrentProductUri;
 
     /** Content URI for the existing image (null if it's a new image) */
     private Uri mCurrentImageUri;
 
+    /** Hash of the picked image, which is copied into the app's storage in the background */
+    private Future<String> mImageHash;
+
+    /** Copies picked images into the app's storage */
+    private final ExecutorService mImageExecutor = Executors.newSingleThreadExecutor();
+
     /** EditText field to enter the brand */
     private EditText mBrandEditText;
 
@@ -61,6 +72,9 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the quantity */
     private EditText mQuantityEditText;
 
+    /** EditText field to enter the reorder threshold */
+    private EditText mReorderThresholdEditText;
+
     /** EditText field to enter the supplier name */
     private EditText mSupplierEditText;
 
@@ -79,9 +93,31 @@ public class EditorActivity extends AppCompatActivity implements
     /** Boolean flag that keeps track of whether the product has been edited (true) or not (false) */
     private boolean mProductHasChanged = false;
 
-    /** Catch errors when uploading image */
-    private static final String TAG = EditorActivity.class.getSimpleName();
+    /** Whether the fields were filled from the database, later loads only refresh the quantity */
+    private boolean mProductLoaded = false;
 
+    /**
+     * Quantity of an existing product as last shown from the database and the taps on its
+     * buttons. What the user typed on top of it is their change of the quantity.
+     */
+    private long mShownQuantity;
+
+    /** Runs the writes of the editor in the background */
+    private ProductWriteQueue mWriteQueue;
+
+    /** Shows the toasts of writes that finish after the editor closed */
+    private Context mApplicationContext;
+
+    /** Shows the stored quantity once sales and restocks are written, plus the taps made since */
+    private final ProductWriteQueue.QuantityCallback mQuantityCallback =
+            new ProductWriteQueue.QuantityCallback() {
+                @Override
+                public void onQuantityCommitted(long id, long quantity, boolean applied) {
+                    if (quantity >= 0 && !isFinishing()) {
+                        showQuantity(quantity + mWriteQueue.getUncommittedDelta(id));
+                    }
+                }
+            };
 
     /**
      * OnTouchListener that listens for any user touches on a View, implying that they are modifying
@@ -100,6 +136,9 @@ public class EditorActivity extends AppCompatActivity implements
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
 
+        mWriteQueue = ProductWriteQueue.get(this);
+        mApplicationContext = getApplicationContext();
+
         // Examine the intent that was used to launch this activity,
         // in order to figure out if we're creating a new producy or editing an existing one.
         Intent intent = getIntent();
@@ -128,6 +167,7 @@ public class EditorActivity extends AppCompatActivity implements
         mModelEditText = (EditText) findViewById(R.id.edit_editor_field_model);
         mPriceEditText = (EditText) findViewById(R.id.edit_editor_field_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_editor_field_quantity);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_editor_field_reorder_threshold);
         mSupplierEditText = (EditText) findViewById(R.id.edit_editor_field_supplier);
         mEmailEditText = (EditText) findViewById(R.id.edit_editor_field_email);
         mSaleButton = (Button) findViewById(R.id.sale_button);
@@ -152,6 +192,7 @@ public class EditorActivity extends AppCompatActivity implements
         mModelEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mSupplierEditText.setOnTouchListener(mTouchListener);
         mEmailEditText.setOnTouchListener(mTouchListener);
 
@@ -159,6 +200,12 @@ public class EditorActivity extends AppCompatActivity implements
         mSaleButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                // An existing product is sold directly in the database
+                if (mCurrentProductUri != null) {
+                    adjustStoredQuantity(-1);
+                    return;
+                }
+
                 int currentQuantity = Integer.parseInt(mQuantityEditText.getText().toString().trim());
 
                 // Decrement only if quantity > 0
@@ -175,6 +222,12 @@ public class EditorActivity extends AppCompatActivity implements
         mRestockButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                // An existing product is restocked directly in the database
+                if (mCurrentProductUri != null) {
+                    adjustStoredQuantity(1);
+                    return;
+                }
+
                 int currentQuantity = Integer.parseInt(mQuantityEditText.getText().toString().trim());
 
                 int increasedQuantity = currentQuantity + 1;
@@ -186,6 +239,64 @@ public class EditorActivity extends AppCompatActivity implements
         });
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(STATE_SHOWN_QUANTITY, mShownQuantity);
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Bundle savedInstanceState) {
+        super.onRestoreInstanceState(savedInstanceState);
+        // The quantity field was restored with the text typed before, which is measured against
+        // the quantity shown back then
+        mShownQuantity = savedInstanceState.getLong(STATE_SHOWN_QUANTITY, mShownQuantity);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Don't deliver an image that is still loading to a view that is going away
+        ThumbnailLoader.get(this).cancel(mImageView);
+        // Let an image that is being stored finish, but don't accept new ones
+        mImageExecutor.shutdown();
+    }
+
+    /**
+     * Sell or restock the current product. The quantity shown changes right away, and the change
+     * is written in the background by the provider in a single statement, so sales made from
+     * another screen at the same time are not lost.
+     *
+     * @param delta number of units restocked, or minus the number of units sold
+     */
+    private void adjustStoredQuantity(int delta) {
+        // Sell only what is left
+        if (mShownQuantity + delta < 0) {
+            return;
+        }
+        mWriteQueue.adjustQuantity(ContentUris.parseId(mCurrentProductUri), delta, mQuantityCallback);
+        showQuantity(mShownQuantity + delta);
+    }
+
+    /**
+     * Shows a new quantity of the existing product, keeping the change the user typed on top.
+     */
+    private void showQuantity(long quantity) {
+        int typedChange = getTypedQuantityChange();
+        mShownQuantity = quantity;
+        mQuantityEditText.setText(String.valueOf(quantity + typedChange));
+    }
+
+    /**
+     * Returns how much the user changed the quantity of the existing product by typing, 0 if they
+     * didn't. An empty field counts as 0 units.
+     */
+    private int getTypedQuantityChange() {
+        String typedText = mQuantityEditText.getText().toString().trim();
+        long typedQuantity = TextUtils.isEmpty(typedText) ? 0 : Long.parseLong(typedText);
+        return (int) (typedQuantity - mShownQuantity);
+    }
+
     /**
      * Get user input from editor and save product into database.
      */
@@ -195,6 +306,7 @@ public class EditorActivity extends AppCompatActivity implements
         String productModel = mModelEditText.getText().toString().trim();
         String productPrice = mPriceEditText.getText().toString().trim();
         String productQuantity = mQuantityEditText.getText().toString().trim();
+        String productReorderThreshold = mReorderThresholdEditText.getText().toString().trim();
         String productSupplier = mSupplierEditText.getText().toString().trim();
         String productEmail = mEmailEditText.getText().toString().trim();
 
@@ -227,10 +339,27 @@ public class EditorActivity extends AppCompatActivity implements
         }
         values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
 
-        if (!TextUtils.isEmpty(productQuantity)) {
-            quantity = Integer.parseInt(productQuantity);
+        // A new product is saved with the quantity typed. An existing one only gets the change
+        // the user typed, written like a sale or restock, so sales made since it was shown stay.
+        if (mCurrentProductUri == null) {
+            if (!TextUtils.isEmpty(productQuantity)) {
+                quantity = Integer.parseInt(productQuantity);
+            }
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        } else {
+            int typedChange = getTypedQuantityChange();
+            if (typedChange != 0) {
+                mWriteQueue.adjustQuantity(ContentUris.parseId(mCurrentProductUri), typedChange,
+                        mQuantityCallback);
+            }
         }
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+
+        // The reorder threshold is optional and 0 when left empty
+        int reorderThreshold = 0;
+        if (!TextUtils.isEmpty(productReorderThreshold)) {
+            reorderThreshold = Integer.parseInt(productReorderThreshold);
+        }
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, reorderThreshold);
 
         if (!TextUtils.isEmpty(productSupplier)) {
             values.put(ProductEntry.COLUMN_SUPPLIER_NAME, productSupplier);
@@ -243,31 +372,25 @@ public class EditorActivity extends AppCompatActivity implements
         }
         if (mCurrentProductUri == null) {
             // If URI == null, saving a new product
-            // Insert product into db
-            Uri newuri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-            if (newuri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, R.string.toast_insert_product_failed,
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Else insertion was successful
-                Toast.makeText(this, R.string.toast_insert_product_successful,
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Insert product into db in the background, the editor closes right away
+            mWriteQueue.insert(values, mImageHash, new ProductWriteQueue.ResultCallback<Uri>() {
+                @Override
+                public void onResult(Uri newUri) {
+                    // If the new content URI is null, then there was an error with insertion.
+                    showToast(newUri == null ? R.string.toast_insert_product_failed
+                            : R.string.toast_insert_product_successful);
+                }
+            });
         } else {
-            // Else updating an existing product
-            int rowUpdated = getContentResolver().update(mCurrentProductUri, values, null, null);
-
-            if (rowUpdated == 0) {
-                // If no product was updated, then an error occurred
-                Toast.makeText(this, R.string.editor_update_product_failed,
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Else product update successful
-                Toast.makeText(this, R.string.editor_update_product_successful,
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Else updating an existing product, after the taps on its buttons
+            mWriteQueue.update(mCurrentProductUri, values, mImageHash, new ProductWriteQueue.ResultCallback<Integer>() {
+                @Override
+                public void onResult(Integer rowsUpdated) {
+                    // If no product was updated, then an error occurred
+                    showToast(rowsUpdated == 0 ? R.string.editor_update_product_failed
+                            : R.string.editor_update_product_successful);
+                }
+            });
         }
     }
 
@@ -385,9 +508,11 @@ public class EditorActivity extends AppCompatActivity implements
                 ProductEntry.COLUMN_PRODUCT_MODEL,
                 ProductEntry.COLUMN_PRODUCT_PRICE,
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
                 ProductEntry.COLUMN_SUPPLIER_NAME,
                 ProductEntry.COLUMN_SUPPLIER_EMAIL,
-                ProductEntry.COLUMN_STRING_IMAGE_URI};
+                ProductEntry.COLUMN_STRING_IMAGE_URI,
+                ProductEntry.COLUMN_PRODUCT_IMAGE_HASH};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this, mCurrentProductUri, projection, null, null, null);
@@ -403,35 +528,51 @@ public class EditorActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
+            // Show the stored quantity plus the sales and restocks that aren't written yet
+            long id = ContentUris.parseId(mCurrentProductUri);
+            showQuantity(cursor.getLong(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY))
+                    + mWriteQueue.getUncommittedDelta(id));
+
+            // Every sale and restock reloads the product, keep what the user typed in the
+            // other fields and the image they picked
+            if (mProductLoaded) {
+                return;
+            }
+            mProductLoaded = true;
+
             // Find the columns of product attributes that we're interested in
             int brandColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND);
             int modelColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_MODEL);
             int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            int reorderThresholdColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
             int supplierColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_NAME);
             int emailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_EMAIL);
             int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_STRING_IMAGE_URI);
+            int imageHashColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE_HASH);
 
 
             // Get String using Cursor
             String brand = cursor.getString(brandColumnIndex);
             String model = cursor.getString(modelColumnIndex);
             String price = cursor.getString(priceColumnIndex);
-            String quantity = cursor.getString(quantityColumnIndex);
+            String reorderThreshold = cursor.getString(reorderThresholdColumnIndex);
             String supplier = cursor.getString(supplierColumnIndex);
             String email = cursor.getString(emailColumnIndex);
             String image = cursor.getString(imageColumnIndex);
+            String imageHash = cursor.getString(imageHashColumnIndex);
 
             // Set text and image
             mBrandEditText.setText(brand);
             mModelEditText.setText(model);
             mPriceEditText.setText(price);
-            mQuantityEditText.setText(quantity);
+            mReorderThresholdEditText.setText(reorderThreshold);
             mSupplierEditText.setText(supplier);
             mEmailEditText.setText(email);
-            if (!TextUtils.isEmpty(image)) {
-                Uri imageUri = Uri.parse(image);
-                mImageView.setImageBitmap(getBitmapFromUri(imageUri));
+            // Show the stored image, products saved before it existed only have the URI
+            if (imageHash != null) {
+                showImage(ProductEntry.buildImageUri(id, imageHash));
+            } else if (!TextUtils.isEmpty(image)) {
+                showImage(Uri.parse(image));
             }
         }
     }
@@ -443,6 +584,8 @@ public class EditorActivity extends AppCompatActivity implements
         mModelEditText.setText("");
         mPriceEditText.setText("");
         mQuantityEditText.setText("");
+        mShownQuantity = 0;
+        mReorderThresholdEditText.setText("");
         mSupplierEditText.setText("");
         mEmailEditText.setText("");
 
@@ -461,7 +604,8 @@ public class EditorActivity extends AppCompatActivity implements
 
             if (resultData != null) {
                 mCurrentImageUri = resultData.getData();
-                mImageView.setImageBitmap(getBitmapFromUri(mCurrentImageUri));
+                showImage(mCurrentImageUri);
+                storeImage(mCurrentImageUri);
                 mProductHasChanged = true;
             }
         }
@@ -527,56 +671,27 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     /**
-     *     Gets a bitmap from the given URI
+     * Copies the picked image into the app's storage in the background, while the app may
+     * still read it. The product is saved with the hash of the copy.
      */
-    private Bitmap getBitmapFromUri(Uri uri) {
-
-        if (uri == null || uri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int targetW = mImageView.getWidth();
-        int targetH = mImageView.getHeight();
-
-        InputStream input = null;
-        try {
-            input = this.getContentResolver().openInputStream(uri);
-
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
-
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
-
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            //bmOptions.inPurgeable = true;
-
-            input = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
-
-        } catch (FileNotFoundException fne) {
-            Log.e(TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                input.close();
-            } catch (IOException ioe) {
-
+    private void storeImage(final Uri uri) {
+        mImageHash = mImageExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                Bundle result = getContentResolver().call(ProductEntry.CONTENT_URI,
+                        InventoryContract.METHOD_STORE_IMAGE, uri.toString(), null);
+                return result.getString(InventoryContract.EXTRA_IMAGE_HASH);
             }
-        }
+        });
+    }
+
+    /**
+     * Shows a thumbnail of the image, loaded in the background. The size comes from the
+     * dimension of the view so it is known before the view has been laid out.
+     */
+    private void showImage(Uri uri) {
+        ThumbnailLoader.get(this).load(uri, mImageView,
+                getResources().getDimensionPixelSize(R.dimen.editor_image_size));
     }
 
     /**
@@ -637,16 +752,21 @@ public class EditorActivity extends AppCompatActivity implements
      * Perform the deletion of a product in the database.
      */
     private void deleteProduct() {
-        int rowDeleted = getContentResolver().delete(mCurrentProductUri, null, null);
-
-        if (rowDeleted == 0) {
-            Toast.makeText(this, R.string.editor_delete_product_failed,
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.editor_delete_product_successful,
-                    Toast.LENGTH_SHORT).show();
-        }
-        // Close the activity
+        mWriteQueue.delete(mCurrentProductUri, new ProductWriteQueue.ResultCallback<Integer>() {
+            @Override
+            public void onResult(Integer rowsDeleted) {
+                showToast(rowsDeleted == 0 ? R.string.editor_delete_product_failed
+                        : R.string.editor_delete_product_successful);
+            }
+        });
+        // Close the activity, the product is deleted in the background
         finish();
     }
+
+    /**
+     * Shows a toast that outlives the editor, for writes that finish after it closed.
+     */
+    private void showToast(int messageId) {
+        Toast.makeText(mApplicationContext, messageId, Toast.LENGTH_SHORT).show();
+    }
 }
\ No newline at end of file
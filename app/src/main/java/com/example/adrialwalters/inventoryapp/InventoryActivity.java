@@ -1,36 +1,57 @@
 package com.example.adrialwalters.inventoryapp;
 
-import android.app.LoaderManager;
+import android.app.Activity;
+import android.app.ProgressDialog;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 
 import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
 
 /**
  * Displays list of products that were entered and stored in the app.
  */
-public class InventoryActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class InventoryActivity extends AppCompatActivity implements ProductImporter.Listener {
 
-    /** Identifier for the product data loader */
-    private final static int URI_LOADER = 1;
+    /** Tag for the log messages */
+    private static final String LOG_TAG = InventoryActivity.class.getSimpleName();
 
-    /** Adapter for the ListView */
-    InventoryCursorAdapter mCursorAdapter;
+    /** Pick CSV file request code */
+    private static final int PICK_CSV_REQUEST = 1;
+
+    /** Seed of the products made up from the debug menu, the same on every tap and device */
+    private static final long DEBUG_CATALOG_SEED = 1;
+
+    /** Saved state key, the id of the sort menu item that was checked */
+    private static final String STATE_SORT_ITEM = "sort_item";
+
+    /** Adapter for the RecyclerView */
+    ProductListAdapter mListAdapter;
+
+    /** Imports CSV files, shared with the activities before and after a rotation */
+    private ProductImporter mImporter;
+
+    /** Shows the progress of the running import, or null */
+    private ProgressDialog mImportDialog;
+
+    /** Id of the checked sort menu item */
+    private int mSortItemId = R.id.action_sort_added;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,34 +68,200 @@ public class InventoryActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the product data
-        ListView productListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        // Rows are updated in place when a product changes, without fading between versions
+        ((SimpleItemAnimator) productListView.getItemAnimator()).setSupportsChangeAnimations(false);
 
-        // Setup an Adapter to create a list item for each row of product data in the Cursor.
-        // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new InventoryCursorAdapter(this, null);
-        productListView.setAdapter(mCursorAdapter);
+        // Setup an Adapter to create a list item for each product. The products are loaded
+        // page by page in the background while the list is scrolled. Clicking a product opens it.
+        mListAdapter = new ProductListAdapter(this, productListView,
+                new ProductListAdapter.OnProductClickListener() {
+                    @Override
+                    public void onProductClick(long id) {
+                        Intent detailEditorIntent = new Intent(
+                                Intent.ACTION_VIEW,
+                                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                                InventoryActivity.this,
+                                EditorActivity.class);
+
+                        startActivity(detailEditorIntent);
+                    }
+                });
+
+        // Show the empty view only when the list has 0 items
+        final View emptyView = findViewById(R.id.empty_view);
+        mListAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
-        // Setup item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                Intent detailEditorIntent = new Intent(
-                        Intent.ACTION_VIEW,
-                        ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
-                        InventoryActivity.this,
-                        EditorActivity.class);
-
-                startActivity(detailEditorIntent);
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            private void updateEmptyView() {
+                emptyView.setVisibility(mListAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
             }
         });
 
-        // Kick off the loader
-        getLoaderManager().initLoader(URI_LOADER, null, this);
+        // Start loading the products, in the order picked before the activity was recreated
+        if (savedInstanceState != null) {
+            mSortItemId = savedInstanceState.getInt(STATE_SORT_ITEM, mSortItemId);
+        }
+        applySortOrder();
+        mListAdapter.start();
+
+        // An import keeps running while the activity is recreated, e.g. after a rotation, so
+        // just show its progress again
+        mImporter = ProductImporter.get(this);
+        if (mImporter.isRunning()) {
+            showImportDialog();
+        }
+        mImporter.setListener(this);
+
+        // Offer to finish an import that was interrupted, for instance when the app was closed
+        if (savedInstanceState == null && !mImporter.isRunning()) {
+            mImporter.findInterruptedImport();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_SORT_ITEM, mSortItemId);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop listening for changes and cancel pending page and thumbnail loads
+        mListAdapter.stop();
+        mImporter.setListener(null);
+        if (mImportDialog != null) {
+            mImportDialog.dismiss();
+        }
+        // When the user leaves, stop the import after the current batch, it can be resumed
+        // next time
+        if (isFinishing()) {
+            mImporter.cancel();
+        }
+    }
+
+    /**
+     * Lets the user pick the CSV file to import.
+     */
+    private void openCsvSelector() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT < 19) {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        } else {
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+        }
+        intent.setType("text/*");
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import_products)),
+                PICK_CSV_REQUEST);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        super.onActivityResult(requestCode, resultCode, resultData);
+        if (requestCode == PICK_CSV_REQUEST && resultCode == Activity.RESULT_OK
+                && resultData != null && resultData.getData() != null) {
+            Uri source = resultData.getData();
+            // Keep access to the file, so an interrupted import can be resumed after a restart
+            if (Build.VERSION.SDK_INT >= 19) {
+                try {
+                    getContentResolver().takePersistableUriPermission(source,
+                            Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                } catch (SecurityException e) {
+                    Log.w(LOG_TAG, "Cannot keep access to " + source, e);
+                }
+            }
+            startImport(source);
+        }
+    }
+
+    /**
+     * Imports the CSV file in the background and shows its progress.
+     */
+    private void startImport(Uri source) {
+        if (mImporter.isRunning()) {
+            return;
+        }
+        showImportDialog();
+        mImporter.start(source);
+    }
+
+    private void showImportDialog() {
+        mImportDialog = new ProgressDialog(this);
+        mImportDialog.setTitle(R.string.import_title);
+        mImportDialog.setIndeterminate(true);
+        mImportDialog.setCancelable(false);
+        mImportDialog.show();
+    }
+
+    @Override
+    public void onInterruptedImportFound(final Uri source) {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.import_resume_dialog_msg)
+                .setPositiveButton(R.string.import_resume, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        startImport(source);
+                    }
+                })
+                .setNegativeButton(R.string.import_discard, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        mImporter.discardInterruptedImport();
+                    }
+                })
+                .show();
+    }
+
+    @Override
+    public void onProgress(ProductImporter.Progress progress) {
+        mImportDialog.setMessage(getString(R.string.import_progress, progress.recordCount,
+                progress.insertedCount, progress.rejectedCount, progress.recordsPerSecond));
+    }
+
+    @Override
+    public void onFinished(ProductImporter.Progress progress) {
+        endImport(progress);
+        Toast.makeText(this, getString(R.string.import_finished,
+                progress.insertedCount, progress.rejectedCount), Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onFailed(ProductImporter.Progress progress, Exception e) {
+        Log.e(LOG_TAG, "Import failed after " + progress.recordCount + " rows", e);
+        endImport(progress);
+        Toast.makeText(this, getString(R.string.import_failed, e.getMessage()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Closes the progress dialog and logs the rejected rows.
+     */
+    private void endImport(ProductImporter.Progress progress) {
+        for (String reject : progress.rejects) {
+            Log.w(LOG_TAG, reject);
+        }
+        // The import may have ended while the activity was being recreated
+        if (mImportDialog != null) {
+            mImportDialog.dismiss();
+            mImportDialog = null;
+        }
     }
 
     private void insertProduct() {
@@ -93,6 +280,23 @@ public class InventoryActivity extends AppCompatActivity implements
         Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI,values);
     }
 
+    /**
+     * Inserts made up products in the background, to try the app with a large catalog. The
+     * list shows them as each batch is committed.
+     */
+    private void generateCatalog(int count) {
+        final Context applicationContext = getApplicationContext();
+        ProductWriteQueue.get(this).generateCatalog(count, DEBUG_CATALOG_SEED,
+                new ProductWriteQueue.ResultCallback<Integer>() {
+                    @Override
+                    public void onResult(Integer inserted) {
+                        Toast.makeText(applicationContext,
+                                applicationContext.getString(R.string.generate_finished, inserted),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
     /**
      * Helper method to delete all pets in the database
      */
@@ -101,11 +305,54 @@ public class InventoryActivity extends AppCompatActivity implements
         Log.v("InventoryActivity", rowsDeleted + "rows deleted from products database");
     }
 
+    /**
+     * Sorts the list by the checked sort menu item. Each order is backed by an index of the
+     * provider, so the list is read in order without sorting the table.
+     */
+    private void applySortOrder() {
+        switch (mSortItemId) {
+            case R.id.action_sort_brand:
+                mListAdapter.setOrder(ProductEntry.COLUMN_PRODUCT_BRAND, false);
+                break;
+            case R.id.action_sort_price:
+                mListAdapter.setOrder(ProductEntry.COLUMN_PRODUCT_PRICE, false);
+                break;
+            case R.id.action_sort_quantity:
+                mListAdapter.setOrder(ProductEntry.COLUMN_PRODUCT_QUANTITY, false);
+                break;
+            case R.id.action_sort_stock_value:
+                // Most valuable stock first
+                mListAdapter.setOrder(ProductEntry.COLUMN_PRODUCT_STOCK_VALUE, true);
+                break;
+            default:
+                mListAdapter.setOrder(ProductEntry._ID, false);
+                break;
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_inventory.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+        menu.findItem(mSortItemId).setChecked(true);
+        menu.findItem(R.id.action_generate_catalog).setVisible(BuildConfig.DEBUG);
+
+        // Filter the list while the user types, the adapter waits for a pause in typing
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mListAdapter.setSearchText(query);
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mListAdapter.setSearchText(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -117,6 +364,30 @@ public class InventoryActivity extends AppCompatActivity implements
             case R.id.action_add_dummy_data:
                 insertProduct();
                 return true;
+            // Respond to a click on one of the "Generate catalog" debug menu options
+            case R.id.action_generate_10k:
+                generateCatalog(10000);
+                return true;
+            case R.id.action_generate_100k:
+                generateCatalog(100000);
+                return true;
+            case R.id.action_generate_1m:
+                generateCatalog(1000000);
+                return true;
+            // Respond to a click on the "Import CSV" menu option
+            case R.id.action_import_products:
+                openCsvSelector();
+                return true;
+            // Respond to a click on one of the "Sort by" menu options
+            case R.id.action_sort_added:
+            case R.id.action_sort_brand:
+            case R.id.action_sort_price:
+            case R.id.action_sort_quantity:
+            case R.id.action_sort_stock_value:
+                item.setChecked(true);
+                mSortItemId = item.getItemId();
+                applySortOrder();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
@@ -124,30 +395,4 @@ public class InventoryActivity extends AppCompatActivity implements
         }
         return super.onOptionsItemSelected(item);
     }
-
-    @Override
-    public Loader<Cursor> onCreateLoader(int i , Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_BRAND,
-                ProductEntry.COLUMN_PRODUCT_MODEL,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this, ProductEntry.CONTENT_URI, projection, null, null, null);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link InventoryCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
-    }
 }
@@ -0,0 +1,69 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.text.TextUtils;
+
+/**
+ * A product row as shown in the inventory list.
+ */
+class Product {
+
+    /** Id of the product in the products table */
+    private final long mId;
+
+    /** Name of the brand */
+    private final String mBrand;
+
+    /** Name of the model */
+    private final String mModel;
+
+    /** Price of the product */
+    private final int mPrice;
+
+    /** Quantity available */
+    private final int mQuantity;
+
+    /** URI of the product image, or null if it has none */
+    private final String mImageUri;
+
+    Product(long id, String brand, String model, int price, int quantity, String imageUri) {
+        mId = id;
+        mBrand = brand;
+        mModel = model;
+        mPrice = price;
+        mQuantity = quantity;
+        mImageUri = imageUri;
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    String getBrand() {
+        return mBrand;
+    }
+
+    String getModel() {
+        return mModel;
+    }
+
+    int getPrice() {
+        return mPrice;
+    }
+
+    int getQuantity() {
+        return mQuantity;
+    }
+
+    String getImageUri() {
+        return mImageUri;
+    }
+
+    /**
+     * Returns true if the other product shows the same values, so its row needn't be bound again.
+     */
+    boolean hasSameContents(Product other) {
+        return other != null && mId == other.mId && mPrice == other.mPrice
+                && mQuantity == other.mQuantity && TextUtils.equals(mBrand, other.mBrand)
+                && TextUtils.equals(mModel, other.mModel) && TextUtils.equals(mImageUri, other.mImageUri);
+    }
+}
@@ -0,0 +1,551 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports a supplier catalog from a CSV file. The file is read one record at a time, so memory
+ * use does not depend on its size, and the products are inserted in batches of
+ * {@link #BATCH_SIZE}, each in a single transaction of the provider's bulk insert. Rows are
+ * validated by the provider with the same rules as a single insert, and rejected rows are
+ * reported with their line number instead of stopping the import.
+ *
+ * The first record must be a header with the column names of {@link ProductEntry}, for
+ * instance "brand,model,price,quantity,supplier,email". Every batch is committed together with
+ * the number of records read so far, see {@link InventoryContract#EXTRA_IMPORT_SOURCE}, so an
+ * interrupted import of the same file continues right after the last committed record.
+ *
+ * There is one importer for the whole app, so an import keeps running while the activity is
+ * recreated. Its methods must be called on the main thread, and the listener is called on the
+ * main thread.
+ */
+class ProductImporter {
+
+    /**
+     * Receives updates about the import.
+     */
+    interface Listener {
+
+        /**
+         * Called after every batch.
+         */
+        void onProgress(Progress progress);
+
+        /**
+         * Called once the whole file was imported.
+         */
+        void onFinished(Progress progress);
+
+        /**
+         * Called if the file could not be read. The import can be resumed later.
+         */
+        void onFailed(Progress progress, Exception e);
+
+        /**
+         * Called by {@link #findInterruptedImport()} if an import was interrupted, for instance
+         * when the app was closed, and no import is running.
+         */
+        void onInterruptedImportFound(Uri source);
+    }
+
+    /**
+     * Snapshot of the state of an import.
+     */
+    static final class Progress {
+
+        /** Number of records of the file processed so far, including those of earlier runs */
+        final long recordCount;
+
+        /** Number of products inserted by this run */
+        final long insertedCount;
+
+        /** Number of records rejected by this run */
+        final long rejectedCount;
+
+        /** Records processed per second by this run */
+        final double recordsPerSecond;
+
+        /** Line number and reason of the first rejected records */
+        final List<String> rejects;
+
+        Progress(long recordCount, long insertedCount, long rejectedCount,
+                 double recordsPerSecond, List<String> rejects) {
+            this.recordCount = recordCount;
+            this.insertedCount = insertedCount;
+            this.rejectedCount = rejectedCount;
+            this.recordsPerSecond = recordsPerSecond;
+            this.rejects = rejects;
+        }
+    }
+
+    /** Number of records inserted per transaction */
+    static final int BATCH_SIZE = 500;
+
+    /** Number of rejected records whose reason is kept, so memory use stays bounded */
+    private static final int MAX_REPORTED_REJECTS = 100;
+
+    /** Columns a CSV file may contain */
+    private static final List<String> IMPORT_COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_STRING_IMAGE_URI);
+
+    private static ProductImporter sInstance;
+
+    private final ContentResolver mResolver;
+
+    /**
+     * Runs the imports one after the other, so an import started right after another one was
+     * cancelled reads the checkpoint of its last batch.
+     */
+    private final Executor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Receives the updates, null while no activity is shown */
+    private Listener mListener;
+
+    /** The import the listener is told about, null if none is running */
+    private ImportRun mCurrentRun;
+
+    /** Result of an import that ended while there was no listener, delivered to the next one */
+    private Runnable mUndeliveredResult;
+
+    /**
+     * Returns the importer shared by the whole app.
+     */
+    static synchronized ProductImporter get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductImporter(context.getApplicationContext().getContentResolver(),
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    ProductImporter(ContentResolver resolver, Executor executor) {
+        mResolver = resolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets the listener, or removes it if null. A new listener is told right away about an
+     * import that ended while there was none.
+     */
+    void setListener(Listener listener) {
+        mListener = listener;
+        if (listener != null && mUndeliveredResult != null) {
+            Runnable result = mUndeliveredResult;
+            mUndeliveredResult = null;
+            result.run();
+        }
+    }
+
+    /**
+     * Returns true if an import was started and hasn't ended or been cancelled yet.
+     */
+    boolean isRunning() {
+        return mCurrentRun != null;
+    }
+
+    /**
+     * Looks for an interrupted import in the background, see
+     * {@link Listener#onInterruptedImportFound(Uri)}.
+     */
+    void findInterruptedImport() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle checkpoint = mResolver.call(ProductEntry.CONTENT_URI,
+                        InventoryContract.METHOD_GET_IMPORT_CHECKPOINT, null, null);
+                final String source = checkpoint.getString(InventoryContract.EXTRA_IMPORT_SOURCE);
+                if (source == null) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCurrentRun == null && mListener != null) {
+                            mListener.onInterruptedImportFound(Uri.parse(source));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the interrupted import in the background, so the next import of the file starts
+     * from the beginning.
+     */
+    void discardInterruptedImport() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mResolver.call(ProductEntry.CONTENT_URI,
+                        InventoryContract.METHOD_CLEAR_IMPORT_CHECKPOINT, null, null);
+            }
+        });
+    }
+
+    /**
+     * Starts importing the file in the background, unless an import is running. If an import
+     * of the same file was interrupted, the records it committed are skipped.
+     */
+    void start(Uri source) {
+        if (mCurrentRun != null) {
+            return;
+        }
+        mCurrentRun = new ImportRun(source);
+        mExecutor.execute(mCurrentRun);
+    }
+
+    /**
+     * Stops the import after the current batch. The checkpoint is kept, so it can be resumed.
+     * The listener is not told about it anymore.
+     */
+    void cancel() {
+        if (mCurrentRun != null) {
+            mCurrentRun.cancelled = true;
+            mCurrentRun = null;
+        }
+    }
+
+    private void importFile(Uri source, ImportRun run) {
+        long startTime = SystemClock.elapsedRealtime();
+        long recordCount = 0;
+        long insertedCount = 0;
+        long rejectedCount = 0;
+        List<String> rejects = new ArrayList<>();
+
+        BufferedReader reader = null;
+        try {
+            // Continue after the records committed by an earlier run of the same file
+            long committedCount = 0;
+            Bundle checkpoint = mResolver.call(ProductEntry.CONTENT_URI,
+                    InventoryContract.METHOD_GET_IMPORT_CHECKPOINT, null, null);
+            if (source.toString().equals(checkpoint.getString(InventoryContract.EXTRA_IMPORT_SOURCE))) {
+                committedCount = checkpoint.getLong(InventoryContract.EXTRA_IMPORT_RECORD_COUNT);
+            }
+
+            InputStream inputStream = mResolver.openInputStream(source);
+            if (inputStream == null) {
+                throw new FileNotFoundException("Cannot open " + source);
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            CsvReader csv = new CsvReader(reader);
+
+            List<String> header = csv.readRecord();
+            if (header == null) {
+                throw new IOException("The file is empty");
+            }
+            String[] columns = readColumns(header);
+
+            // Skip what is already in the database
+            while (recordCount < committedCount && csv.readRecord() != null) {
+                recordCount++;
+            }
+
+            List<ContentValues> batch = new ArrayList<>(BATCH_SIZE);
+            List<Integer> batchLines = new ArrayList<>(BATCH_SIZE);
+            List<String> record;
+            boolean endOfFile = false;
+            while (!endOfFile && !run.cancelled) {
+                // Collect the next batch
+                batch.clear();
+                batchLines.clear();
+                while (batch.size() < BATCH_SIZE) {
+                    record = csv.readRecord();
+                    if (record == null) {
+                        endOfFile = true;
+                        break;
+                    }
+                    recordCount++;
+                    int line = csv.getRecordLineNumber();
+
+                    if (record.size() != columns.length) {
+                        rejectedCount++;
+                        addReject(rejects, line, "Expected " + columns.length + " fields but found " + record.size());
+                        continue;
+                    }
+                    batch.add(toContentValues(columns, record));
+                    batchLines.add(line);
+                }
+
+                // Also sent when every record was rejected, to move the checkpoint past them
+                Bundle result = insertBatch(batch, source, recordCount);
+                insertedCount += result.getInt(InventoryContract.EXTRA_INSERTED_COUNT);
+                int[] rejectedRows = result.getIntArray(InventoryContract.EXTRA_REJECTED_ROWS);
+                String[] reasons = result.getStringArray(InventoryContract.EXTRA_REJECT_REASONS);
+                for (int i = 0; rejectedRows != null && i < rejectedRows.length; i++) {
+                    rejectedCount++;
+                    addReject(rejects, batchLines.get(rejectedRows[i]), reasons[i]);
+                }
+
+                Progress progress = newProgress(startTime, recordCount, insertedCount, rejectedCount, rejects);
+                if (endOfFile) {
+                    // Done, the next import of this file starts from the beginning. If this
+                    // doesn't happen, resuming finds every record committed and inserts nothing.
+                    mResolver.call(ProductEntry.CONTENT_URI,
+                            InventoryContract.METHOD_CLEAR_IMPORT_CHECKPOINT, null, null);
+                    postResult(run, progress, null);
+                } else {
+                    postProgress(run, progress);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Bad files and database errors, like a full disk, end the run and keep its checkpoint
+            postResult(run, newProgress(startTime, recordCount, insertedCount, rejectedCount, rejects), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the header to the product columns. The id column of an export is skipped, since
+     * imported products always get new ids.
+     *
+     * @throws IOException if the header names a column that can't be imported
+     */
+    private static String[] readColumns(List<String> header) throws IOException {
+        String[] columns = new String[header.size()];
+        for (int i = 0; i < columns.length; i++) {
+            String column = header.get(i).trim().toLowerCase(Locale.US);
+            if (column.equals(ProductEntry._ID)) {
+                continue;
+            }
+            if (!IMPORT_COLUMNS.contains(column)) {
+                throw new IOException("Unknown column " + header.get(i));
+            }
+            columns[i] = column;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the values of the record. Empty fields are left out, so the provider applies the
+     * same defaults and checks as for a product entered in the editor.
+     */
+    private static ContentValues toContentValues(String[] columns, List<String> record) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < columns.length; i++) {
+            String value = record.get(i).trim();
+            if (columns[i] != null && !value.isEmpty()) {
+                values.put(columns[i], value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Inserts the batch and the new checkpoint in a single transaction and returns the
+     * provider's report of the rows that were rejected.
+     *
+     * @param recordCount number of records of the file read up to the end of the batch
+     */
+    private Bundle insertBatch(List<ContentValues> batch, Uri source, long recordCount) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(InventoryContract.EXTRA_VALUES,
+                batch.toArray(new ContentValues[batch.size()]));
+        extras.putString(InventoryContract.EXTRA_IMPORT_SOURCE, source.toString());
+        extras.putLong(InventoryContract.EXTRA_IMPORT_RECORD_COUNT, recordCount);
+        return mResolver.call(ProductEntry.CONTENT_URI, InventoryContract.METHOD_BULK_INSERT,
+                null, extras);
+    }
+
+    private static void addReject(List<String> rejects, int line, String reason) {
+        if (rejects.size() < MAX_REPORTED_REJECTS) {
+            rejects.add("Line " + line + ": " + reason);
+        }
+    }
+
+    private static Progress newProgress(long startTime, long recordCount, long insertedCount,
+                                        long rejectedCount, List<String> rejects) {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        return new Progress(recordCount, insertedCount, rejectedCount,
+                (insertedCount + rejectedCount) * 1000.0 / elapsed,
+                Collections.unmodifiableList(new ArrayList<>(rejects)));
+    }
+
+    private void postProgress(final ImportRun run, final Progress progress) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (run == mCurrentRun && mListener != null) {
+                    mListener.onProgress(progress);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the run and tells the listener, or the next one if there is none.
+     *
+     * @param e the reason the import failed, or null if it finished
+     */
+    private void postResult(final ImportRun run, final Progress progress, final Exception e) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (run != mCurrentRun) {
+                    return;
+                }
+                mCurrentRun = null;
+
+                Runnable result = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (e == null) {
+                            mListener.onFinished(progress);
+                        } else {
+                            mListener.onFailed(progress, e);
+                        }
+                    }
+                };
+                if (mListener != null) {
+                    result.run();
+                } else {
+                    mUndeliveredResult = result;
+                }
+            }
+        });
+    }
+
+    /**
+     * One import started by {@link #start(Uri)}.
+     */
+    private class ImportRun implements Runnable {
+        final Uri source;
+
+        /** Set to stop the import after the current batch */
+        volatile boolean cancelled;
+
+        ImportRun(Uri source) {
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            importFile(source, this);
+        }
+    }
+
+    /**
+     * Reads records of a CSV file as described in RFC 4180. Fields may be quoted, and quoted
+     * fields may contain commas, line breaks and quotes written as two quotes.
+     */
+    static class CsvReader {
+
+        private final BufferedReader mReader;
+
+        /** Number of lines read so far */
+        private int mLineNumber;
+
+        /** Line the last record started on */
+        private int mRecordLineNumber;
+
+        CsvReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Returns the line the last record read started on. A record spans more than one line
+         * if a quoted field contains a line break.
+         */
+        int getRecordLineNumber() {
+            return mRecordLineNumber;
+        }
+
+        /**
+         * Reads the fields of the next record, or returns null at the end of the file.
+         * Blank lines are skipped.
+         */
+        List<String> readRecord() throws IOException {
+            String line;
+            do {
+                line = mReader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                mLineNumber++;
+            } while (line.isEmpty());
+            mRecordLineNumber = mLineNumber;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == line.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // The quoted field continues on the next line
+                    String next = mReader.readLine();
+                    if (next == null) {
+                        throw new IOException("Unterminated quoted field at line " + mLineNumber);
+                    }
+                    mLineNumber++;
+                    field.append('\n');
+                    line = next;
+                    i = 0;
+                    continue;
+                }
+
+                char c = line.charAt(i++);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        // Two quotes stand for one quote
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Adapter for the inventory list. The products are read page by page through a
+ * {@link ProductPager}, so only the pages around the visible rows are kept in memory.
+ *
+ * Click listeners are set once per row when it is created, and binding only sets the values,
+ * so binding a row allocates little more than its strings.
+ */
+public class ProductListAdapter extends RecyclerView.Adapter<ProductListAdapter.ViewHolder>
+        implements ProductPager.Listener, ProductSearch.Listener {
+
+    /**
+     * Receives clicks on products.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    private final Context mContext;
+
+    /** The list showing this adapter */
+    private final RecyclerView mRecyclerView;
+
+    private final ProductPager mPager;
+
+    private final ProductSearch mSearch;
+
+    /** Products found for the search text, or null to show all products */
+    private List<Product> mSearchResults;
+
+    private final OnProductClickListener mClickListener;
+
+    private final ThumbnailLoader mThumbnailLoader;
+
+    private final ProductWriteQueue mWriteQueue;
+
+    /**
+     * Shows the stored quantity once sales are written, plus the taps made since. The page
+     * holding the product is reloaded by the change notification after that.
+     */
+    private final ProductWriteQueue.QuantityCallback mQuantityCallback =
+            new ProductWriteQueue.QuantityCallback() {
+                @Override
+                public void onQuantityCommitted(long id, long quantity, boolean applied) {
+                    if (quantity < 0) {
+                        return;
+                    }
+                    for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+                        ViewHolder holder = (ViewHolder) mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+                        if (holder.productId == id) {
+                            holder.quantity = (int) quantity + mWriteQueue.getUncommittedDelta(id);
+                            holder.quantityTextView.setText(mQuantityPrefix + holder.quantity);
+                        }
+                    }
+                }
+            };
+
+    /** Size of the thumbnails in pixels */
+    private final int mThumbnailSize;
+
+    /** Text in front of the price */
+    private final String mPricePrefix;
+
+    /** Text in front of the quantity */
+    private final String mQuantityPrefix;
+
+    /** Number of rows bound and the time it took, read by the scroll benchmark */
+    private int mBindCount;
+    private long mBindTimeNanos;
+
+    /**
+     * Constructs a new {@link ProductListAdapter} and sets it on the list.
+     *
+     * @param context       the context
+     * @param recyclerView  the list that shows the products
+     * @param clickListener is told which product was clicked
+     */
+    public ProductListAdapter(Context context, RecyclerView recyclerView,
+                              OnProductClickListener clickListener) {
+        mContext = context;
+        mRecyclerView = recyclerView;
+        mClickListener = clickListener;
+        mPager = new ProductPager(context.getContentResolver(), this);
+        mSearch = new ProductSearch(context.getContentResolver(), this);
+        mThumbnailLoader = ThumbnailLoader.get(context);
+        mWriteQueue = ProductWriteQueue.get(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        mPricePrefix = context.getString(R.string.dollar_sign);
+        mQuantityPrefix = context.getString(R.string.stock) + ": ";
+        mRecyclerView.setAdapter(this);
+    }
+
+    /**
+     * Start loading the products and listening for changes.
+     */
+    public void start() {
+        mPager.start();
+    }
+
+    /**
+     * Stop listening for changes and cancel page and thumbnail loads that are still running.
+     */
+    public void stop() {
+        mPager.stop();
+        mSearch.cancel();
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            ViewHolder holder = (ViewHolder) mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+            mThumbnailLoader.cancel(holder.thumbnailImageView);
+        }
+    }
+
+    /**
+     * Show only the products matching the text, once the user stops typing. An empty text shows
+     * all products again.
+     */
+    public void setSearchText(String text) {
+        mSearch.setText(text);
+    }
+
+    /**
+     * Sort the products by the column, one the provider can sort by.
+     *
+     * @param descending true for the largest values first
+     */
+    public void setOrder(String column, boolean descending) {
+        mPager.setOrder(column, descending);
+    }
+
+    /**
+     * Returns the search of the list.
+     */
+    ProductSearch getSearch() {
+        return mSearch;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSearchResults != null ? mSearchResults.size() : mPager.getCount();
+    }
+
+    /**
+     * Returns the product at the position, or null if it is still being loaded.
+     */
+    Product getItem(int position) {
+        return mSearchResults != null ? mSearchResults.get(position) : mPager.get(position);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+
+        // Open the product, unless it is still being loaded
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (holder.productId != RecyclerView.NO_ID) {
+                    mClickListener.onProductClick(holder.productId);
+                }
+            }
+        });
+
+        // When the sale button is pressed the quantity shown decreases by 1 right away, and the
+        // sale is written in the background together with the other taps on the product
+        holder.saleButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (holder.productId == RecyclerView.NO_ID || holder.quantity <= 0) {
+                    return;
+                }
+                holder.quantity--;
+                holder.quantityTextView.setText(mQuantityPrefix + holder.quantity);
+                mWriteQueue.adjustQuantity(holder.productId, -1, mQuantityCallback);
+            }
+        });
+
+        return holder;
+    }
+
+    /**
+     * Binds the product to the row, or clears it while the product is being loaded.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = System.nanoTime();
+        Product product = getItem(position);
+        if (product == null) {
+            holder.productId = RecyclerView.NO_ID;
+            holder.brandTextView.setText("");
+            holder.modelTextView.setText("");
+            holder.priceTextView.setText("");
+            holder.quantityTextView.setText("");
+            holder.saleButton.setEnabled(false);
+            mThumbnailLoader.load(null, holder.thumbnailImageView, mThumbnailSize);
+        } else {
+            holder.productId = product.getId();
+            holder.brandTextView.setText(product.getBrand());
+            holder.modelTextView.setText(product.getModel());
+            holder.priceTextView.setText(mPricePrefix + product.getPrice());
+            holder.quantity = product.getQuantity() + mWriteQueue.getUncommittedDelta(product.getId());
+            holder.quantityTextView.setText(mQuantityPrefix + holder.quantity);
+            holder.saleButton.setEnabled(true);
+
+            String imageUri = product.getImageUri();
+            mThumbnailLoader.load(TextUtils.isEmpty(imageUri) ? null : Uri.parse(imageUri),
+                    holder.thumbnailImageView, mThumbnailSize);
+        }
+        mBindCount++;
+        mBindTimeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * A row that scrolled off screen doesn't need the image it was loading anymore.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnailLoader.cancel(holder.thumbnailImageView);
+    }
+
+    /**
+     * Shows the products found, or all products again when the search ended. The rows are
+     * replaced as a whole, since a search result shares no positions with the previous one.
+     */
+    @Override
+    public void onSearchResults(String text, List<Product> products) {
+        mSearchResults = products;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * While searching, the products that changed may now match the text or not, so the
+     * search runs again instead.
+     */
+    @Override
+    public void onListChanged(ProductPager.ListChange change) {
+        if (mSearchResults != null) {
+            mSearch.refresh();
+            return;
+        }
+        change.dispatchUpdatesTo(this);
+    }
+
+    @Override
+    public void onPageLoaded(int page) {
+        if (mSearchResults != null) {
+            return;
+        }
+        int start = page * ProductPager.PAGE_SIZE;
+        int count = Math.min(ProductPager.PAGE_SIZE, getItemCount() - start);
+        if (count > 0) {
+            notifyItemRangeChanged(start, count);
+        }
+    }
+
+    /**
+     * Rebind only the rows that changed.
+     */
+    @Override
+    public void onRowsChanged(List<Integer> positions) {
+        if (mSearchResults != null) {
+            mSearch.refresh();
+            return;
+        }
+        for (int position : positions) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Returns the number of rows bound so far.
+     */
+    int getBindCount() {
+        return mBindCount;
+    }
+
+    /**
+     * Returns the total time spent binding rows so far, in nanoseconds.
+     */
+    long getBindTimeNanos() {
+        return mBindTimeNanos;
+    }
+
+    /**
+     * Child views of a list item, looked up once when the item is created.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView brandTextView;
+        final TextView modelTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+        final ImageView thumbnailImageView;
+
+        /** Id of the product bound to the item */
+        long productId = RecyclerView.NO_ID;
+
+        /** Quantity shown, including sales not written yet */
+        int quantity;
+
+        ViewHolder(View view) {
+            super(view);
+            brandTextView = (TextView) view.findViewById(R.id.text_item_brand);
+            modelTextView = (TextView) view.findViewById(R.id.text_item_model);
+            priceTextView = (TextView) view.findViewById(R.id.text_item_price);
+            quantityTextView = (TextView) view.findViewById(R.id.text_item_quantity);
+            saleButton = (Button) view.findViewById(R.id.button_list_sale);
+            thumbnailImageView = (ImageView) view.findViewById(R.id.image_item_thumbnail);
+        }
+    }
+}
@@ -0,0 +1,750 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the product list one page at a time on a background thread, using the keyset paged
+ * queries of the provider. Only the most recently used pages are kept in memory, so the memory
+ * used by the list does not grow with the number of products.
+ *
+ * When products are added or removed, the pages in memory are read again. The run of pages around
+ * the one used last, where the visible rows are, is compared with the old one on the background
+ * thread, so only the rows that changed there are updated. The rest of the list is only rebound
+ * and grown or shrunk at its end, since none of it is on screen.
+ *
+ * All methods must be called on the main thread, and the listener is called on the main thread.
+ */
+class ProductPager {
+
+    /**
+     * Receives updates about the pages.
+     */
+    interface Listener {
+
+        /**
+         * Called when the products were reloaded, with the difference to the list before.
+         */
+        void onListChanged(ListChange change);
+
+        /**
+         * Called when the products of a page have been loaded.
+         */
+        void onPageLoaded(int page);
+
+        /**
+         * Called when products in memory were updated in place.
+         *
+         * @param positions of the updated products
+         */
+        void onRowsChanged(List<Integer> positions);
+    }
+
+    /** Number of products in a page */
+    static final int PAGE_SIZE = 50;
+
+    /** Number of pages kept in memory */
+    private static final int MAX_CACHED_PAGES = 10;
+
+    /** Number of ids read per query when skipping to a page whose start is not known yet */
+    private static final int SKIP_CHUNK_SIZE = 1000;
+
+    /**
+     * Largest change of the number of products that is still compared row by row. After larger
+     * changes, like an import, the whole list is rebound instead.
+     */
+    private static final int MAX_DIFFED_COUNT_CHANGE = PAGE_SIZE * MAX_CACHED_PAGES;
+
+    /** Columns shown in the list */
+    static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_STRING_IMAGE_URI,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_HASH};
+
+    /** Projection of the statistics with the number of products */
+    private static final String[] COUNT_PROJECTION = { StatsEntry.COLUMN_SKU_COUNT };
+
+    private final ContentResolver mResolver;
+
+    private final Listener mListener;
+
+    /** Runs all queries, one at a time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Pages in memory, by page number */
+    private final LruCache<Integer, List<Product>> mPages = new LruCache<>(MAX_CACHED_PAGES);
+
+    /** Pages that are being loaded */
+    private final Set<Integer> mLoadingPages = new HashSet<>();
+
+    /** Order of the products */
+    private Order mOrder = new Order(ProductEntry._ID, false);
+
+    /** Whether the products are being loaded, between {@link #start()} and {@link #stop()} */
+    private boolean mStarted;
+
+    /**
+     * Last product of every page, or null if not known yet. The next page is queried starting
+     * after this product.
+     */
+    private PageEnd[] mPageEnds = new PageEnd[0];
+
+    /** Number of products */
+    private int mCount;
+
+    /** Incremented whenever the data is reloaded, so results of older loads can be dropped */
+    private int mGeneration;
+
+    /**
+     * Whether a reload is running. The pages in memory must not change until it is done, since
+     * they are the old list it is compared with, so nothing else is loaded meanwhile.
+     */
+    private boolean mRefreshing;
+
+    /** Whether the data changed again while a reload was running */
+    private boolean mRefreshAgain;
+
+    /**
+     * Reloads only the updated rows when the notification says which products changed,
+     * otherwise reloads everything.
+     */
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] changedIds = ProductEntry.getChangedIds(uri);
+            if (mRefreshing) {
+                // The running reload may have read the products before this change
+                mRefreshAgain = true;
+            } else if (changedIds == null || !mOrder.column.equals(ProductEntry._ID)) {
+                // An updated product may have moved, unless the list is sorted by id
+                refresh();
+            } else {
+                reloadRows(changedIds);
+            }
+        }
+    };
+
+    ProductPager(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Start listening for changes and load the number of products.
+     */
+    void start() {
+        mStarted = true;
+        mResolver.registerContentObserver(ProductEntry.CONTENT_URI, true, mObserver);
+        refresh();
+    }
+
+    /**
+     * Stop listening for changes and cancel all pending loads.
+     */
+    void stop() {
+        mStarted = false;
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+        mGeneration++;
+    }
+
+    /**
+     * Sort the products by the column, one the provider can sort by. Every product may move, so
+     * the pages in memory are dropped and the list is loaded again.
+     */
+    void setOrder(String column, boolean descending) {
+        if (column.equals(mOrder.column) && descending == mOrder.descending) {
+            return;
+        }
+        mOrder = new Order(column, descending);
+
+        // Drop loads of the old order, including a reload that is running
+        mGeneration++;
+        mRefreshing = false;
+        mRefreshAgain = false;
+        mLoadingPages.clear();
+        mPages.evictAll();
+        mPageEnds = new PageEnd[mPageEnds.length];
+        if (mStarted) {
+            refresh();
+        }
+    }
+
+    /**
+     * Returns the number of products.
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the product at the given position, or null if its page is not loaded yet. In that
+     * case the page is loaded in the background and the listener is told once it is ready.
+     */
+    Product get(int position) {
+        int page = position / PAGE_SIZE;
+        List<Product> products = mPages.get(page);
+        if (products == null) {
+            loadPage(page);
+            return null;
+        }
+
+        int index = position % PAGE_SIZE;
+        return index < products.size() ? products.get(index) : null;
+    }
+
+    /**
+     * Reload the number of products and the pages in memory, and tell the listener what changed.
+     */
+    void refresh() {
+        if (mRefreshing) {
+            mRefreshAgain = true;
+            return;
+        }
+        mRefreshing = true;
+        final int generation = ++mGeneration;
+        final Order order = mOrder;
+        mLoadingPages.clear();
+
+        // Copy the list as it is shown now, to compare the reloaded list with. The snapshot is
+        // in access order, so its last page is the one used last.
+        final int oldCount = mCount;
+        final Map<Integer, List<Product>> oldPages = new HashMap<>();
+        int lastUsedPage = -1;
+        for (Map.Entry<Integer, List<Product>> page : mPages.snapshot().entrySet()) {
+            oldPages.put(page.getKey(), new ArrayList<>(page.getValue()));
+            lastUsedPage = page.getKey();
+        }
+
+        // Compare only the pages in memory next to the one used last
+        int firstPage = lastUsedPage;
+        int lastPage = lastUsedPage;
+        while (firstPage > 0 && oldPages.containsKey(firstPage - 1)) {
+            firstPage--;
+        }
+        while (lastPage >= 0 && oldPages.containsKey(lastPage + 1)) {
+            lastPage++;
+        }
+        final int windowStart = Math.max(0, firstPage) * PAGE_SIZE;
+        final int windowEnd = (lastPage + 1) * PAGE_SIZE;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count = queryCount();
+                final PageEnd[] pageEnds = new PageEnd[(count + PAGE_SIZE - 1) / PAGE_SIZE];
+                final Map<Integer, List<Product>> pages = reloadPages(order, oldPages.keySet(), pageEnds);
+
+                DiffUtil.DiffResult diff = null;
+                int oldWindowEnd = Math.min(windowEnd, oldCount);
+                int newWindowEnd = Math.min(windowEnd, count);
+                if (windowStart < oldWindowEnd && windowStart < newWindowEnd
+                        && Math.abs(count - oldCount) <= MAX_DIFFED_COUNT_CHANGE) {
+                    diff = DiffUtil.calculateDiff(new PageDiffCallback(windowStart,
+                            oldWindowEnd, oldPages, newWindowEnd, pages), false);
+                }
+                final ListChange change = new ListChange(oldCount, count, windowStart,
+                        oldWindowEnd, newWindowEnd, diff);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRefreshing = false;
+                        mCount = count;
+                        mPageEnds = pageEnds;
+                        mPages.evictAll();
+                        for (Map.Entry<Integer, List<Product>> page : pages.entrySet()) {
+                            mPages.put(page.getKey(), page.getValue());
+                        }
+                        mListener.onListChanged(change);
+
+                        if (mRefreshAgain) {
+                            mRefreshAgain = false;
+                            refresh();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the given pages again, walking the products from the start of the list since they
+     * may have moved to other pages. Pages past the end of the list are left out.
+     *
+     * @param pageEnds receives the last product of every page that was read or walked over
+     */
+    private Map<Integer, List<Product>> reloadPages(Order order, Set<Integer> pageNumbers,
+                                                    PageEnd[] pageEnds) {
+        List<Integer> sortedPages = new ArrayList<>(pageNumbers);
+        Collections.sort(sortedPages);
+
+        Map<Integer, List<Product>> pages = new HashMap<>();
+        int knownPage = -1;
+        PageEnd knownEnd = null;
+        for (int page : sortedPages) {
+            if (page >= pageEnds.length) {
+                break;
+            }
+
+            PageEnd[] skippedEnds = skipPages(order, knownEnd, page - knownPage - 1);
+            for (int i = 0; i < skippedEnds.length && skippedEnds[i] != PageEnd.PAST_END; i++) {
+                pageEnds[knownPage + 1 + i] = skippedEnds[i];
+            }
+            PageEnd after = skippedEnds.length > 0 ? skippedEnds[skippedEnds.length - 1] : knownEnd;
+            if (after == PageEnd.PAST_END) {
+                break;
+            }
+
+            List<Product> products = queryPage(order, after);
+            pages.put(page, products);
+            if (products.size() < PAGE_SIZE) {
+                break;
+            }
+            pageEnds[page] = order.getEnd(products.get(PAGE_SIZE - 1));
+            knownPage = page;
+            knownEnd = pageEnds[page];
+        }
+        return pages;
+    }
+
+    /**
+     * Reload the given products in the background and replace them in the pages in memory.
+     * Products that are not in memory are skipped, they are read when their page is loaded.
+     */
+    private void reloadRows(final long[] ids) {
+        final int generation = mGeneration;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Product> products = queryProducts(ids);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+
+                        List<Integer> positions = new ArrayList<>();
+                        for (Map.Entry<Integer, List<Product>> page : mPages.snapshot().entrySet()) {
+                            List<Product> pageProducts = page.getValue();
+                            for (int i = 0; i < pageProducts.size(); i++) {
+                                for (Product product : products) {
+                                    if (product.getId() == pageProducts.get(i).getId()) {
+                                        pageProducts.set(i, product);
+                                        positions.add(page.getKey() * PAGE_SIZE + i);
+                                    }
+                                }
+                            }
+                        }
+                        if (!positions.isEmpty()) {
+                            mListener.onRowsChanged(positions);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load a page in the background unless it is already being loaded.
+     */
+    private void loadPage(final int page) {
+        if (mRefreshing || !mLoadingPages.add(page)) {
+            return;
+        }
+
+        // Find the closest earlier page whose end is known, -1 means the start of the list
+        int knownPage = page - 1;
+        while (knownPage >= 0 && mPageEnds[knownPage] == null) {
+            knownPage--;
+        }
+        final int startPage = knownPage;
+        final PageEnd start = knownPage >= 0 ? mPageEnds[knownPage] : null;
+        final Order order = mOrder;
+        final int generation = mGeneration;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Walk the pages in between to find where this page starts
+                final PageEnd[] skippedEnds = skipPages(order, start, page - startPage - 1);
+                PageEnd after = skippedEnds.length > 0 ? skippedEnds[skippedEnds.length - 1] : start;
+                final List<Product> products = after == PageEnd.PAST_END
+                        ? new ArrayList<Product>() : queryPage(order, after);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mLoadingPages.remove(page);
+
+                        for (int i = 0; i < skippedEnds.length && skippedEnds[i] != PageEnd.PAST_END; i++) {
+                            mPageEnds[startPage + 1 + i] = skippedEnds[i];
+                        }
+                        if (products.size() == PAGE_SIZE && page < mPageEnds.length) {
+                            mPageEnds[page] = order.getEnd(products.get(PAGE_SIZE - 1));
+                        }
+                        mPages.put(page, products);
+                        mListener.onPageLoaded(page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the ids and sort keys after the start to find the last product of the given number
+     * of pages.
+     *
+     * @param start last product before the pages, or null for the start of the list
+     * @return the last product of every skipped page, {@link PageEnd#PAST_END} for pages past
+     *         the end of the list
+     */
+    private PageEnd[] skipPages(Order order, PageEnd start, int pages) {
+        PageEnd[] ends = new PageEnd[pages];
+        Arrays.fill(ends, PageEnd.PAST_END);
+
+        PageEnd after = start;
+        int position = 0;
+        while (position < pages * PAGE_SIZE) {
+            int limit = Math.min(SKIP_CHUNK_SIZE, pages * PAGE_SIZE - position);
+            Cursor cursor = mResolver.query(order.buildPageUri(after, limit),
+                    new String[] { ProductEntry._ID, order.column }, null, null, null);
+            if (cursor == null) {
+                break;
+            }
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    after = new PageEnd(cursor.getLong(0), cursor.getString(1));
+                    position++;
+                    if (position % PAGE_SIZE == 0) {
+                        ends[position / PAGE_SIZE - 1] = after;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return ends;
+    }
+
+    /**
+     * Reads the page of products that starts after the given product, or at the start of the
+     * list if it is null.
+     */
+    private List<Product> queryPage(Order order, PageEnd after) {
+        return readProducts(mResolver.query(order.buildPageUri(after, PAGE_SIZE),
+                PROJECTION, null, null, null));
+    }
+
+    /**
+     * Reads the products with the given ids.
+     */
+    private List<Product> queryProducts(long[] ids) {
+        StringBuilder selection = new StringBuilder(ProductEntry._ID + " IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(")");
+
+        return readProducts(mResolver.query(ProductEntry.CONTENT_URI, PROJECTION,
+                selection.toString(), selectionArgs, null));
+    }
+
+    /**
+     * Reads all products of the cursor and closes it.
+     */
+    static List<Product> readProducts(Cursor cursor) {
+        List<Product> products = new ArrayList<>(PAGE_SIZE);
+        if (cursor == null) {
+            return products;
+        }
+
+        try {
+            // Look up the column indexes once for all rows
+            int idColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
+            int brandColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND);
+            int modelColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_MODEL);
+            int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_STRING_IMAGE_URI);
+            int imageHashColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE_HASH);
+
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idColumnIndex);
+
+                // Prefer the stored image, products saved before it existed only have the URI
+                String imageHash = cursor.getString(imageHashColumnIndex);
+                String imageUri = imageHash != null
+                        ? ProductEntry.buildImageUri(id, imageHash).toString()
+                        : cursor.getString(imageColumnIndex);
+
+                products.add(new Product(
+                        id,
+                        cursor.getString(brandColumnIndex),
+                        cursor.getString(modelColumnIndex),
+                        cursor.getInt(priceColumnIndex),
+                        cursor.getInt(quantityColumnIndex),
+                        imageUri));
+            }
+        } finally {
+            cursor.close();
+        }
+        return products;
+    }
+
+    /**
+     * Reads the number of products from the statistics, which doesn't scan the table.
+     */
+    private int queryCount() {
+        Cursor cursor = mResolver.query(StatsEntry.CONTENT_URI, COUNT_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Column the products are sorted by and the direction.
+     */
+    private static class Order {
+        final String column;
+        final boolean descending;
+
+        Order(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        /**
+         * Builds the URI of the page that starts after the given product.
+         */
+        Uri buildPageUri(PageEnd after, int limit) {
+            return after == null
+                    ? ProductEntry.buildPageUri(column, descending, null, 0, limit)
+                    : ProductEntry.buildPageUri(column, descending, after.key, after.id, limit);
+        }
+
+        /**
+         * Returns the end of a page that ends with the product.
+         */
+        PageEnd getEnd(Product product) {
+            String key;
+            switch (column) {
+                case ProductEntry.COLUMN_PRODUCT_BRAND:
+                    key = product.getBrand();
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_MODEL:
+                    key = product.getModel();
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_PRICE:
+                    key = String.valueOf(product.getPrice());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_QUANTITY:
+                    key = String.valueOf(product.getQuantity());
+                    break;
+                case ProductEntry.COLUMN_PRODUCT_STOCK_VALUE:
+                    key = String.valueOf((long) product.getPrice() * product.getQuantity());
+                    break;
+                default:
+                    key = null;
+                    break;
+            }
+            return new PageEnd(product.getId(), key);
+        }
+    }
+
+    /**
+     * The last product of a page, by its id and the value of the sort column, which the next
+     * page is queried after.
+     */
+    private static class PageEnd {
+
+        /** Marks pages past the end of the list */
+        static final PageEnd PAST_END = new PageEnd(-1, null);
+
+        final long id;
+        final String key;
+
+        PageEnd(long id, String key) {
+            this.id = id;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The change of the list after a reload. The rows of the compared pages get their
+     * difference, the rows before them are rebound, and the rows after them are rebound and
+     * grown or shrunk at the end of the list. If no pages were compared, the whole list changed.
+     */
+    static class ListChange {
+        private final int mOldCount;
+        private final int mNewCount;
+        private final int mWindowStart;
+        private final int mOldWindowEnd;
+        private final int mNewWindowEnd;
+        private final DiffUtil.DiffResult mWindowDiff;
+
+        ListChange(int oldCount, int newCount, int windowStart, int oldWindowEnd,
+                   int newWindowEnd, DiffUtil.DiffResult windowDiff) {
+            mOldCount = oldCount;
+            mNewCount = newCount;
+            mWindowStart = windowStart;
+            mOldWindowEnd = oldWindowEnd;
+            mNewWindowEnd = newWindowEnd;
+            mWindowDiff = windowDiff;
+        }
+
+        void dispatchUpdatesTo(final RecyclerView.Adapter<?> adapter) {
+            if (mWindowDiff == null) {
+                adapter.notifyDataSetChanged();
+                return;
+            }
+
+            // The rows after the window first, so the positions of the window don't move yet
+            int oldTail = mOldCount - mOldWindowEnd;
+            int newTail = mNewCount - mNewWindowEnd;
+            if (Math.min(oldTail, newTail) > 0) {
+                adapter.notifyItemRangeChanged(mOldWindowEnd, Math.min(oldTail, newTail));
+            }
+            if (newTail > oldTail) {
+                adapter.notifyItemRangeInserted(mOldCount, newTail - oldTail);
+            } else if (newTail < oldTail) {
+                adapter.notifyItemRangeRemoved(mOldWindowEnd + newTail, oldTail - newTail);
+            }
+
+            mWindowDiff.dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    adapter.notifyItemRangeInserted(mWindowStart + position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    adapter.notifyItemRangeRemoved(mWindowStart + position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    adapter.notifyItemMoved(mWindowStart + fromPosition, mWindowStart + toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    adapter.notifyItemRangeChanged(mWindowStart + position, count, payload);
+                }
+            });
+
+            if (mWindowStart > 0) {
+                adapter.notifyItemRangeChanged(0, mWindowStart);
+            }
+        }
+    }
+
+    /**
+     * Compares a window of the list before and after a reload. Products are the same item if
+     * they have the same id. Rows that are not in memory are placeholders, which are all the
+     * same item, but are reported as changed so that visible placeholders are bound again and
+     * load their page.
+     */
+    private static class PageDiffCallback extends DiffUtil.Callback {
+        private final int mStart;
+        private final int mOldEnd;
+        private final Map<Integer, List<Product>> mOldPages;
+        private final int mNewEnd;
+        private final Map<Integer, List<Product>> mNewPages;
+
+        PageDiffCallback(int start, int oldEnd, Map<Integer, List<Product>> oldPages,
+                         int newEnd, Map<Integer, List<Product>> newPages) {
+            mStart = start;
+            mOldEnd = oldEnd;
+            mOldPages = oldPages;
+            mNewEnd = newEnd;
+            mNewPages = newPages;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldEnd - mStart;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewEnd - mStart;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            Product oldProduct = get(mOldPages, mStart + oldPosition);
+            Product newProduct = get(mNewPages, mStart + newPosition);
+            if (oldProduct == null || newProduct == null) {
+                return oldProduct == newProduct;
+            }
+            return oldProduct.getId() == newProduct.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Product oldProduct = get(mOldPages, mStart + oldPosition);
+            return oldProduct != null
+                    && oldProduct.hasSameContents(get(mNewPages, mStart + newPosition));
+        }
+
+        private static Product get(Map<Integer, List<Product>> pages, int position) {
+            List<Product> products = pages.get(position / PAGE_SIZE);
+            int index = position % PAGE_SIZE;
+            return products != null && index < products.size() ? products.get(index) : null;
+        }
+    }
+}
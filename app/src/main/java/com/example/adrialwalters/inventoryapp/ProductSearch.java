@@ -0,0 +1,177 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Searches the products while the user types. A query starts once typing pauses for
+ * {@link #DEBOUNCE_MS}, and a query that is still running when the text changes again is
+ * cancelled in SQLite, so the connection is free for the query of the new text right away.
+ *
+ * All methods must be called on the main thread, and the listener is called on the main thread.
+ */
+class ProductSearch {
+
+    /** Pause in typing after which the text is searched */
+    static final long DEBOUNCE_MS = 150;
+
+    /**
+     * Receives the products found for the text.
+     */
+    interface Listener {
+
+        /**
+         * @param products the products found, or null if the text is empty and the whole
+         *                 list should be shown again
+         */
+        void onSearchResults(String text, List<Product> products);
+    }
+
+    private final ContentResolver mResolver;
+
+    private final Listener mListener;
+
+    /** Runs the queries, a cancelled one ends quickly so the next can start */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Starts the query of the text once typing paused */
+    private final Runnable mStartQuery = new Runnable() {
+        @Override
+        public void run() {
+            startQuery();
+        }
+    };
+
+    /** Text to search for */
+    private String mText = "";
+
+    /** Increased with every text, results of older texts are dropped */
+    private int mGeneration;
+
+    /** Cancels the running query, or null */
+    private CancellationSignal mCancellationSignal;
+
+    /** Time the text last changed, in nanoseconds */
+    private long mTextChangedNanos;
+
+    /** Time from the last change of the text to its results, in nanoseconds */
+    private long mLastLatencyNanos;
+
+    /** Number of queries cancelled because the text changed while they ran */
+    private int mCancelledCount;
+
+    ProductSearch(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Searches for the text once typing pauses. An empty text ends the search.
+     */
+    void setText(String text) {
+        text = text == null ? "" : text.trim();
+        if (text.equals(mText)) {
+            return;
+        }
+        mText = text;
+        mGeneration++;
+        mTextChangedNanos = System.nanoTime();
+        cancelQuery();
+        mMainHandler.removeCallbacks(mStartQuery);
+
+        if (TextUtils.isEmpty(text)) {
+            mListener.onSearchResults(text, null);
+        } else {
+            mMainHandler.postDelayed(mStartQuery, DEBOUNCE_MS);
+        }
+    }
+
+    /**
+     * Searches for the current text again now, e.g. after products changed.
+     */
+    void refresh() {
+        if (!TextUtils.isEmpty(mText)) {
+            mGeneration++;
+            mTextChangedNanos = System.nanoTime();
+            cancelQuery();
+            mMainHandler.removeCallbacks(mStartQuery);
+            startQuery();
+        }
+    }
+
+    /**
+     * Stops the running query and drops its results.
+     */
+    void cancel() {
+        mGeneration++;
+        cancelQuery();
+        mMainHandler.removeCallbacks(mStartQuery);
+    }
+
+    /**
+     * Returns the time from the last change of the text to its results, in nanoseconds.
+     */
+    long getLastLatencyNanos() {
+        return mLastLatencyNanos;
+    }
+
+    /**
+     * Returns the number of queries cancelled because the text changed while they ran.
+     */
+    int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    private void cancelQuery() {
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+            mCancelledCount++;
+        }
+    }
+
+    private void startQuery() {
+        final String text = mText;
+        final int generation = mGeneration;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Product> products;
+                try {
+                    // Reading the cursor runs the statement, so it is read while it can be cancelled
+                    products = ProductPager.readProducts(mResolver.query(ProductEntry.buildSearchUri(text),
+                            ProductPager.PROJECTION, null, null, null, cancellationSignal));
+                } catch (OperationCanceledException e) {
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mCancellationSignal = null;
+                        mLastLatencyNanos = System.nanoTime() - mTextChangedNanos;
+                        mListener.onSearchResults(text, products);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the product writes of the UI on a single background thread, one after the other in the
+ * order they were made, so the main thread never waits for the database.
+ *
+ * Sale and restock taps on the same product are collected for {@link #COALESCE_WINDOW_MS} and
+ * written as a single change of the quantity. Until the change is committed the UI shows the
+ * stored quantity plus {@link #getUncommittedDelta(long)}, and it is told the stored quantity
+ * once the change is committed.
+ *
+ * All methods must be called on the main thread, and the callbacks are called on the main thread.
+ */
+class ProductWriteQueue {
+
+    private static final String TAG = ProductWriteQueue.class.getSimpleName();
+
+    /** Time taps on the same product are collected before they are written */
+    static final long COALESCE_WINDOW_MS = 300;
+
+    /**
+     * Receives the stored quantity once a change of the quantity has been written.
+     */
+    interface QuantityCallback {
+
+        /**
+         * @param id       of the product
+         * @param quantity stored quantity after the write, or -1 if the product doesn't exist
+         * @param applied  false if the change couldn't be applied, because there wasn't enough
+         *                 stock for a sale
+         */
+        void onQuantityCommitted(long id, long quantity, boolean applied);
+    }
+
+    /**
+     * Receives the result of an insert, update or delete.
+     */
+    interface ResultCallback<T> {
+        void onResult(T result);
+    }
+
+    private static ProductWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Runs all writes, one at a time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Runs catalog generation, which can take minutes and must not hold up the sales and saves
+     * queued behind it
+     */
+    private final ExecutorService mCatalogExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Taps collected but not sent yet, by product id */
+    private final Map<Long, Adjustment> mPendingAdjustments = new HashMap<>();
+
+    /** Sum of the taps not committed yet, sent or not, by product id */
+    private final Map<Long, Integer> mUncommittedDeltas = new HashMap<>();
+
+    /**
+     * Returns the queue shared by the whole app.
+     */
+    static synchronized ProductWriteQueue get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductWriteQueue(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private ProductWriteQueue(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Changes the quantity of a product, together with the other taps on it within the window.
+     *
+     * @param delta    number of units restocked, or minus the number of units sold
+     * @param callback told the stored quantity once the change is committed
+     */
+    void adjustQuantity(long id, int delta, QuantityCallback callback) {
+        Adjustment adjustment = mPendingAdjustments.get(id);
+        if (adjustment == null) {
+            adjustment = new Adjustment(id);
+            mPendingAdjustments.put(id, adjustment);
+            mMainHandler.postDelayed(adjustment, COALESCE_WINDOW_MS);
+        }
+        adjustment.delta += delta;
+        if (!adjustment.callbacks.contains(callback)) {
+            adjustment.callbacks.add(callback);
+        }
+        addUncommittedDelta(id, delta);
+    }
+
+    /**
+     * Returns the change of the quantity of the product that was tapped but isn't stored yet.
+     */
+    int getUncommittedDelta(long id) {
+        Integer delta = mUncommittedDeltas.get(id);
+        return delta != null ? delta : 0;
+    }
+
+    /**
+     * Inserts a product.
+     *
+     * @param imageHash hash of the product's image while it is still being stored, or null
+     * @param callback  told the URI of the new product, or null if it couldn't be inserted
+     */
+    void insert(final ContentValues values, final Future<String> imageHash,
+                final ResultCallback<Uri> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                putImageHash(values, imageHash);
+                Uri uri = null;
+                try {
+                    uri = mResolver.insert(ProductEntry.CONTENT_URI, values);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Failed to insert product", e);
+                }
+                postResult(callback, uri);
+            }
+        });
+    }
+
+    /**
+     * Updates a product. Taps on it that are still being collected are written first.
+     *
+     * @param imageHash hash of the product's new image while it is still being stored, or null
+     * @param callback  told the number of updated products, 0 if it couldn't be updated
+     */
+    void update(final Uri uri, final ContentValues values, final Future<String> imageHash,
+                final ResultCallback<Integer> callback) {
+        flushAdjustment(ContentUris.parseId(uri));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                putImageHash(values, imageHash);
+                int rows = 0;
+                try {
+                    rows = mResolver.update(uri, values, null, null);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Failed to update " + uri, e);
+                }
+                postResult(callback, rows);
+            }
+        });
+    }
+
+    /**
+     * Deletes a product. Taps on it that are still being collected are written first.
+     *
+     * @param callback told the number of deleted products
+     */
+    void delete(final Uri uri, final ResultCallback<Integer> callback) {
+        flushAdjustment(ContentUris.parseId(uri));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                postResult(callback, mResolver.delete(uri, null, null));
+            }
+        });
+    }
+
+    /**
+     * Inserts made up products for load tests, see
+     * {@link InventoryContract#METHOD_GENERATE_CATALOG}. Runs on its own thread, so other writes
+     * aren't queued behind it.
+     *
+     * @param callback told the number of inserted products
+     */
+    void generateCatalog(final int count, final long seed, final ResultCallback<Integer> callback) {
+        mCatalogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle extras = new Bundle();
+                extras.putLong(InventoryContract.EXTRA_SEED, seed);
+                Bundle result = mResolver.call(ProductEntry.CONTENT_URI,
+                        InventoryContract.METHOD_GENERATE_CATALOG, String.valueOf(count), extras);
+                postResult(callback, result.getInt(InventoryContract.EXTRA_INSERTED_COUNT));
+            }
+        });
+    }
+
+    /**
+     * Sends the taps on the product now instead of at the end of the window.
+     */
+    private void flushAdjustment(long id) {
+        Adjustment adjustment = mPendingAdjustments.get(id);
+        if (adjustment != null) {
+            mMainHandler.removeCallbacks(adjustment);
+            adjustment.run();
+        }
+    }
+
+    private void addUncommittedDelta(long id, int delta) {
+        int total = getUncommittedDelta(id) + delta;
+        if (total == 0) {
+            mUncommittedDeltas.remove(id);
+        } else {
+            mUncommittedDeltas.put(id, total);
+        }
+    }
+
+    /**
+     * Waits on the write thread for the image to be stored and adds its hash to the values. The
+     * product is still written without it if the image couldn't be stored.
+     */
+    private static void putImageHash(ContentValues values, Future<String> imageHash) {
+        if (imageHash == null) {
+            return;
+        }
+        try {
+            String hash = imageHash.get();
+            if (hash != null) {
+                values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_HASH, hash);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Failed to store image", e);
+        }
+    }
+
+    private <T> void postResult(final ResultCallback<T> callback, final T result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * Writes a change of the quantity on the write thread and reads back the stored quantity. A
+     * sale is only applied if there is enough stock for all of it.
+     */
+    private AdjustmentResult writeAdjustment(long id, int delta) {
+        if (delta != 0) {
+            Uri adjustUri = delta < 0
+                    ? ProductEntry.buildSaleUri(id, -delta)
+                    : ProductEntry.buildRestockUri(id, delta);
+            Bundle result = mResolver.call(ProductEntry.CONTENT_URI,
+                    InventoryContract.METHOD_ADJUST_QUANTITY, adjustUri.toString(), null);
+            long quantity = result.getLong(InventoryContract.EXTRA_QUANTITY, -1);
+            if (quantity >= 0) {
+                return new AdjustmentResult(quantity, true, true);
+            }
+        }
+
+        // Nothing to write, or the change was refused because the product is gone or there
+        // wasn't enough stock, read what is stored to tell which
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return new AdjustmentResult(cursor.getLong(0), delta == 0, true);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new AdjustmentResult(-1, false, false);
+    }
+
+    /**
+     * What {@link #writeAdjustment} did.
+     */
+    private static class AdjustmentResult {
+        /** Stored quantity after the write, -1 if the product wasn't found */
+        final long quantity;
+        final boolean applied;
+        final boolean found;
+
+        AdjustmentResult(long quantity, boolean applied, boolean found) {
+            this.quantity = quantity;
+            this.applied = applied;
+            this.found = found;
+        }
+    }
+
+    /**
+     * The taps on a product within one window. Runs on the main thread when the window ends.
+     */
+    private class Adjustment implements Runnable {
+        final long id;
+        int delta;
+        final List<QuantityCallback> callbacks = new ArrayList<>();
+
+        Adjustment(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            mPendingAdjustments.remove(id);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final AdjustmentResult result = writeAdjustment(id, delta);
+
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            addUncommittedDelta(id, -delta);
+                            long quantity = result.found ? result.quantity : -1;
+                            for (QuantityCallback callback : callbacks) {
+                                callback.onQuantityCommitted(id, quantity, result.applied);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+}
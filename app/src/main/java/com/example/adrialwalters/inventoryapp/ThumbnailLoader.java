@@ -0,0 +1,496 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads product images into image views as thumbnails.
+ *
+ * Images are decoded on background threads and scaled down to a bucket of the requested size,
+ * the next power of two, so that views of slightly different sizes share the same thumbnail.
+ * Thumbnails are kept in a memory LRU cache and written to an on-disk cache in the cache
+ * directory, both keyed by image URI and bucket, so an image is only decoded from its source
+ * once. Starting a new load for a view cancels the one that is still running for it.
+ *
+ * The loader counts the references the memory cache and the views it filled hold to every
+ * thumbnail. Once a thumbnail has none left its memory goes to a {@link BitmapPool}, and thumbnails
+ * read from the disk cache are decoded into pooled bitmaps, so scrolling through many products
+ * doesn't allocate a new bitmap for every row.
+ *
+ * All public methods must be called on the main thread.
+ */
+public class ThumbnailLoader {
+
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Smallest and largest thumbnail buckets, in pixels */
+    static final int MIN_BUCKET_SIZE = 64;
+    static final int MAX_BUCKET_SIZE = 1024;
+
+    /** Name of the on-disk cache directory, inside the cache directory */
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    /** Maximum size of the on-disk cache, the least recently used files are removed past it */
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Part of the heap used by the memory cache */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Part of the heap used by the bitmap pool */
+    private static final int BITMAP_POOL_FRACTION = 32;
+
+    /** Bytes kept for reading the image header twice, once for its size and once to decode */
+    private static final int HEADER_MARK_LIMIT = 1024 * 1024;
+
+    private static final int THREAD_COUNT = 2;
+
+    private static ThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final File mDiskCacheDir;
+
+    /** Thumbnails in memory by key, sized in bytes */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Load running for every view, removed once it finishes or is cancelled */
+    private final Map<ImageView, Request> mRequests = new HashMap<>();
+
+    /** Thumbnail shown by every view this loader filled */
+    private final Map<ImageView, Bitmap> mShownBitmaps = new WeakHashMap<>();
+
+    /** Number of views and cache entries holding every thumbnail, only used on the main thread */
+    private final Map<Bitmap, Integer> mBitmapRefs = new IdentityHashMap<>();
+
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Returns the loader shared by the whole app.
+     */
+    public static synchronized ThumbnailLoader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        mBitmapPool = new BitmapPool(maxMemory / BITMAP_POOL_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(
+                (int) Math.min(maxMemory / MEMORY_CACHE_FRACTION, Integer.MAX_VALUE)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                release(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Shows a thumbnail of the image in the view, decoding it in the background if it isn't
+     * cached. The view is cleared while the thumbnail loads, or if the URI is null.
+     *
+     * @param size the size the image is shown at in pixels, the thumbnail fits in a square of
+     *             the bucket of this size
+     */
+    public void load(Uri uri, ImageView imageView, int size) {
+        int bucket = getBucketSize(size);
+        String key = uri != null ? getKey(uri, bucket) : null;
+
+        // Rebinding a row to the same image keeps its load running
+        Request running = mRequests.get(imageView);
+        if (running != null && running.key.equals(key)) {
+            return;
+        }
+
+        cancel(imageView);
+        if (uri == null) {
+            show(imageView, null);
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            show(imageView, bitmap);
+            return;
+        }
+
+        show(imageView, null);
+        Request request = new Request(uri, key, bucket, imageView);
+        request.future = mExecutor.submit(request);
+        mRequests.put(imageView, request);
+    }
+
+    /**
+     * Cancels the load running for the view, if any. Call it when the view is recycled for
+     * another image or its activity is destroyed.
+     */
+    public void cancel(ImageView imageView) {
+        Request request = mRequests.remove(imageView);
+        if (request != null) {
+            request.future.cancel(true);
+        }
+    }
+
+    /**
+     * Shows the thumbnail in the view, or clears it if null, and releases the thumbnail it
+     * showed before.
+     */
+    private void show(ImageView imageView, Bitmap bitmap) {
+        if (bitmap != null) {
+            retain(bitmap);
+            imageView.setImageBitmap(bitmap);
+            release(mShownBitmaps.put(imageView, bitmap));
+        } else {
+            imageView.setImageDrawable(null);
+            release(mShownBitmaps.remove(imageView));
+        }
+    }
+
+    private void retain(Bitmap bitmap) {
+        Integer refs = mBitmapRefs.get(bitmap);
+        mBitmapRefs.put(bitmap, refs != null ? refs + 1 : 1);
+    }
+
+    /**
+     * Drops a reference to the thumbnail, and gives its memory to the pool if it was the last.
+     */
+    private void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        Integer refs = mBitmapRefs.get(bitmap);
+        if (refs == null || refs <= 1) {
+            mBitmapRefs.remove(bitmap);
+            mBitmapPool.put(bitmap);
+        } else {
+            mBitmapRefs.put(bitmap, refs - 1);
+        }
+    }
+
+    /**
+     * Returns the bucket the thumbnail of an image shown at the given size is made for.
+     */
+    static int getBucketSize(int size) {
+        int bucket = MIN_BUCKET_SIZE;
+        while (bucket < size && bucket < MAX_BUCKET_SIZE) {
+            bucket *= 2;
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps the decoded image at least as
+     * large as the bucket in its longer side.
+     */
+    static int getSampleSize(int width, int height, int bucket) {
+        int longerSide = Math.max(width, height);
+        int sampleSize = 1;
+        while (longerSide / (sampleSize * 2) >= bucket) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static String getKey(Uri uri, int bucket) {
+        return uri.toString() + '#' + bucket;
+    }
+
+    /**
+     * Returns the thumbnail from the disk cache, or decodes it from its source and writes it
+     * to the disk cache. Runs on a loader thread.
+     */
+    private Bitmap loadThumbnail(Request request) throws IOException {
+        File file = getDiskCacheFile(request.key);
+        if (file.exists()) {
+            Bitmap bitmap = decodeFile(file);
+            if (bitmap != null) {
+                // Mark the file as recently used
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = decode(request.uri, request.bucket);
+        if (bitmap == null || Thread.currentThread().isInterrupted()) {
+            return bitmap;
+        }
+        writeToDiskCache(file, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decodes a thumbnail of the disk cache, into a pooled bitmap if one fits.
+     */
+    private Bitmap decodeFile(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        mBitmapPool.addInBitmapOptions(options);
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap can't hold this image after all, decode into new memory
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Decodes the image and scales it down to fit in the bucket. The source is opened once,
+     * unless its header is too large to read twice.
+     */
+    private Bitmap decode(Uri uri, int bucket) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        // Stored product images come in several sizes, ask for the one closest to the bucket
+        if (ProductEntry.isImageUri(uri)) {
+            uri = ProductEntry.buildImageUri(uri, bucket);
+        }
+
+        InputStream input = new BufferedInputStream(openInputStream(uri));
+        try {
+            input.mark(HEADER_MARK_LIMIT);
+            BitmapFactory.decodeStream(input, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.e(TAG, "Not an image: " + uri);
+                return null;
+            }
+
+            try {
+                input.reset();
+            } catch (IOException e) {
+                input.close();
+                input = new BufferedInputStream(openInputStream(uri));
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inMutable = true;
+            options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, bucket);
+            Bitmap bitmap = BitmapFactory.decodeStream(input, null, options);
+            if (bitmap == null) {
+                return null;
+            }
+
+            // Sampling only divides by powers of two, scale the rest of the way
+            float scale = (float) bucket / Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (scale < 1) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+                if (scaled != bitmap) {
+                    mBitmapPool.put(bitmap);
+                }
+                bitmap = scaled;
+            }
+            return bitmap;
+        } finally {
+            input.close();
+        }
+    }
+
+    private InputStream openInputStream(Uri uri) throws IOException {
+        InputStream input = mResolver.openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Can't open " + uri);
+        }
+        return input;
+    }
+
+    private File getDiskCacheFile(String key) {
+        return new File(mDiskCacheDir, sha1(key));
+    }
+
+    /**
+     * Writes the thumbnail to a temporary file that is renamed once complete, so readers never
+     * see a partial file, then trims the cache.
+     */
+    private void writeToDiskCache(File file, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+
+        File tempFile = new File(mDiskCacheDir, file.getName() + ".tmp");
+        try {
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                // Keep transparency, everything else is stored as JPEG which is much smaller
+                if (bitmap.hasAlpha()) {
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+                } else {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+                }
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write thumbnail to disk cache.", e);
+            tempFile.delete();
+        }
+        trimDiskCache();
+    }
+
+    /**
+     * Removes the least recently used files until the cache fits in its maximum size.
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && totalBytes > MAX_DISK_CACHE_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A thumbnail being loaded for a view.
+     */
+    private class Request implements Runnable {
+        final Uri uri;
+        final String key;
+        final int bucket;
+        final ImageView imageView;
+
+        /** Set on the main thread right after the request is submitted */
+        Future<?> future;
+
+        Request(Uri uri, String key, int bucket, ImageView imageView) {
+            this.uri = uri;
+            this.key = key;
+            this.bucket = bucket;
+            this.imageView = imageView;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            try {
+                bitmap = loadThumbnail(this);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Failed to load image " + uri, e);
+            }
+            if (bitmap == null) {
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                mBitmapPool.put(bitmap);
+                return;
+            }
+
+            final Bitmap thumbnail = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Only show it if the view wasn't given another image or cancelled since
+                    if (mRequests.get(imageView) == Request.this) {
+                        mRequests.remove(imageView);
+                        show(imageView, thumbnail);
+                    }
+
+                    retain(thumbnail);
+                    mMemoryCache.put(key, thumbnail);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Makes up products for load and scale tests. The same seed always gives the same products in
+ * the same order, so a run with a million products can be reproduced exactly.
+ *
+ * The values are spread like those of a real shop rather than evenly: a few brands and
+ * suppliers have most of the products, prices are log-normal around {@link #MEDIAN_PRICE},
+ * quantities are mostly small and some products are out of stock. Part of the products get an
+ * image, one of the app's own resources, so thumbnails are loaded as well.
+ *
+ * Pass batches of {@link #next(int)} to {@link ContentResolver#bulkInsert}, or generate straight
+ * into the database with {@link InventoryContract#METHOD_GENERATE_CATALOG}.
+ */
+public final class CatalogGenerator {
+
+    /** Price half of the products are cheaper than */
+    static final int MEDIAN_PRICE = 80;
+
+    /** Spread of the logarithm of the prices, most prices are within a factor of e of the median */
+    private static final double PRICE_SIGMA = 1.0;
+
+    private static final int MAX_PRICE = 20000;
+
+    /** Mean quantity of the products that are in stock */
+    private static final double MEAN_QUANTITY = 25;
+
+    private static final int MAX_QUANTITY = 999;
+
+    /** Share of the products that are out of stock */
+    private static final double OUT_OF_STOCK_SHARE = 0.08;
+
+    /** Share of the products with a reorder threshold */
+    private static final double REORDER_THRESHOLD_SHARE = 0.7;
+
+    private static final int MAX_REORDER_THRESHOLD = 20;
+
+    /** Share of the products with an image */
+    private static final double IMAGE_SHARE = 0.6;
+
+    /**
+     * Brands, most popular first. The first ones get most of the products, see
+     * {@link #pickSkewed(int, double)}.
+     */
+    private static final String[] BRANDS = {
+            "Apple", "Samsung", "Lenovo", "HP", "Dell", "Sony", "LG", "Asus", "Acer", "Microsoft",
+            "Logitech", "Canon", "Nikon", "Bose", "JBL", "Philips", "Panasonic", "Xiaomi", "Huawei",
+            "Garmin", "Fitbit", "Razer", "Corsair", "Sennheiser", "Epson", "Brother", "Toshiba",
+            "Sharp", "Olympus", "Fujifilm", "GoPro", "Netgear", "TP-Link", "Anker", "Belkin",
+            "Kingston", "SanDisk", "Seagate", "Western Digital", "Motorola"};
+
+    /** Product lines, combined with a number into a model */
+    private static final String[] SERIES = {
+            "Pro", "Air", "Mini", "Max", "Lite", "Plus", "Ultra", "Neo", "One", "Edge", "Flex",
+            "Go", "Studio", "Elite", "Core", "Prime", "Note", "Tab", "Book", "Pulse"};
+
+    /** Suffixes of some models */
+    private static final String[] EDITIONS = { "", "", "", "", " 2nd Gen", " SE", " 5G", " XL", " Refurbished" };
+
+    /** First and second word of the supplier names */
+    private static final String[] SUPPLIER_PREFIXES = {
+            "North", "Pacific", "Summit", "Harbor", "Atlas", "Pioneer", "Metro", "Silver", "Evergreen",
+            "Blue Ridge", "Lakeside", "Redwood", "Keystone", "Granite", "Coastal", "Prairie"};
+    private static final String[] SUPPLIER_SUFFIXES = {
+            "Trading", "Distribution", "Supply", "Wholesale", "Imports", "Electronics", "Logistics",
+            "Partners"};
+
+    /** Resources of the app used as product images, by type and name */
+    private static final String[][] IMAGE_RESOURCES = {
+            { "mipmap", "ic_launcher" }, { "mipmap", "ic_launcher_round" }, { "drawable", "ic_done" }};
+
+    private final Random mRandom;
+
+    private final String[] mImageUris;
+
+    /**
+     * @param packageName the package of the app, whose resources are used as images
+     * @param seed        the products made for the same seed are always the same
+     */
+    public CatalogGenerator(String packageName, long seed) {
+        mRandom = new Random(seed);
+        mImageUris = new String[IMAGE_RESOURCES.length];
+        for (int i = 0; i < IMAGE_RESOURCES.length; i++) {
+            mImageUris[i] = new Uri.Builder()
+                    .scheme(ContentResolver.SCHEME_ANDROID_RESOURCE)
+                    .authority(packageName)
+                    .appendPath(IMAGE_RESOURCES[i][0])
+                    .appendPath(IMAGE_RESOURCES[i][1])
+                    .build()
+                    .toString();
+        }
+    }
+
+    /**
+     * Returns the values of the next product, ready to be inserted.
+     */
+    public ContentValues next() {
+        String brand = BRANDS[pickSkewed(BRANDS.length, 2.5)];
+        String model = SERIES[mRandom.nextInt(SERIES.length)] + " " + (100 + mRandom.nextInt(9900)) +
+                EDITIONS[mRandom.nextInt(EDITIONS.length)];
+        int price = (int) Math.min(MAX_PRICE, Math.max(1,
+                Math.round(MEDIAN_PRICE * Math.exp(PRICE_SIGMA * mRandom.nextGaussian()))));
+        int quantity = mRandom.nextDouble() < OUT_OF_STOCK_SHARE ? 0
+                : (int) Math.min(MAX_QUANTITY, 1 + -Math.log(1 - mRandom.nextDouble()) * MEAN_QUANTITY);
+        int reorderThreshold = mRandom.nextDouble() < REORDER_THRESHOLD_SHARE
+                ? 1 + mRandom.nextInt(MAX_REORDER_THRESHOLD) : 0;
+
+        String supplierPrefix = SUPPLIER_PREFIXES[pickSkewed(SUPPLIER_PREFIXES.length, 1.5)];
+        String supplierSuffix = SUPPLIER_SUFFIXES[pickSkewed(SUPPLIER_SUFFIXES.length, 1.5)];
+        String supplierName = supplierPrefix + " " + supplierSuffix;
+        String supplierEmail = "orders@" + (supplierPrefix + supplierSuffix).replace(" ", "")
+                .toLowerCase(Locale.US) + ".example.com";
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, brand);
+        values.put(ProductEntry.COLUMN_PRODUCT_MODEL, model);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD, reorderThreshold);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, supplierEmail);
+        if (mRandom.nextDouble() < IMAGE_SHARE) {
+            values.put(ProductEntry.COLUMN_STRING_IMAGE_URI, mImageUris[mRandom.nextInt(mImageUris.length)]);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the values of the next products.
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] products = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            products[i] = next();
+        }
+        return products;
+    }
+
+    /**
+     * Picks an index below the count, low indexes more often the larger the skew is. A skew of
+     * 1 picks every index equally often.
+     */
+    private int pickSkewed(int count, double skew) {
+        return (int) (count * Math.pow(mRandom.nextDouble(), skew));
+    }
+}
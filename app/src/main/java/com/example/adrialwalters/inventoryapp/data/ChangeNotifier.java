@@ -0,0 +1,157 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Sends the change notifications of {@link InventoryProvider}. Changes posted within one frame
+ * are merged into a single notification. When only existing products were updated, the
+ * notification carries their ids (see {@link ProductEntry#getChangedIds(Uri)}), so observers can
+ * refresh just those rows instead of querying the whole table again.
+ */
+class ChangeNotifier {
+
+    /** Changes posted within this many milliseconds are sent as one notification */
+    private static final long DISPATCH_DELAY_MS = 16;
+
+    /** When more products than this change, the whole table is reported as changed */
+    private static final int MAX_CHANGED_IDS = 100;
+
+    /**
+     * Changes that have not been sent yet.
+     */
+    static class Changes {
+
+        /** Ids of products whose values were updated */
+        private final Set<Long> mUpdatedIds = new HashSet<>();
+
+        /** True if rows were inserted or deleted, or the changed rows are unknown */
+        private boolean mTableChanged;
+
+        /**
+         * Records that the values of a single product changed.
+         */
+        void rowChanged(long id) {
+            if (!mTableChanged) {
+                mUpdatedIds.add(id);
+            }
+        }
+
+        /**
+         * Records that products were inserted or deleted, or that an unknown set changed.
+         */
+        void tableChanged() {
+            mTableChanged = true;
+            mUpdatedIds.clear();
+        }
+
+        /**
+         * Adds the given changes to these ones.
+         */
+        void addAll(Changes changes) {
+            if (changes.mTableChanged) {
+                tableChanged();
+            } else {
+                for (long id : changes.mUpdatedIds) {
+                    rowChanged(id);
+                }
+            }
+        }
+
+        /**
+         * Returns true if rows were inserted or deleted, or the changed rows are unknown.
+         */
+        boolean isTableChanged() {
+            return mTableChanged;
+        }
+
+        /**
+         * Returns the ids of the updated products, empty if {@link #isTableChanged()}.
+         */
+        Set<Long> getUpdatedIds() {
+            return mUpdatedIds;
+        }
+
+        boolean isEmpty() {
+            return !mTableChanged && mUpdatedIds.isEmpty();
+        }
+
+        void clear() {
+            mTableChanged = false;
+            mUpdatedIds.clear();
+        }
+
+        /**
+         * Returns the URI to notify for these changes.
+         */
+        Uri toUri() {
+            if (mTableChanged || mUpdatedIds.size() > MAX_CHANGED_IDS) {
+                return ProductEntry.CONTENT_URI;
+            }
+            return ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(InventoryContract.QUERY_PARAMETER_CHANGED_IDS,
+                            TextUtils.join(",", mUpdatedIds))
+                    .build();
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    /** Handler of the thread the notifications are sent from */
+    private final Handler mHandler;
+
+    /** Changes waiting to be sent, guarded by itself */
+    private final Changes mPending = new Changes();
+
+    /** Sends the pending changes */
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            Uri uri;
+            synchronized (mPending) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                uri = mPending.toUri();
+                mPending.clear();
+            }
+            // Passing null, by default will notify CursorAdapter object of changes
+            mResolver.notifyChange(uri, null);
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+
+        HandlerThread thread = new HandlerThread(ChangeNotifier.class.getSimpleName());
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queues committed changes. They are sent together with all other changes posted within
+     * the next frame.
+     */
+    void post(Changes changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        synchronized (mPending) {
+            boolean scheduled = !mPending.isEmpty();
+            mPending.addAll(changes);
+            if (!scheduled) {
+                mHandler.postDelayed(mDispatch, DISPATCH_DELAY_MS);
+            }
+        }
+    }
+}
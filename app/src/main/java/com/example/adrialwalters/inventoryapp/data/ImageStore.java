@@ -0,0 +1,243 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Product images owned by the app. A picked image is read once, and stored as a JPEG in every
+ * size of {@link #SIZES}, so consumers never decode the original again and the image keeps
+ * working after the permission to read the original is gone.
+ *
+ * Images are named by the SHA-1 of the original file, so the same picture picked for several
+ * products is stored only once.
+ */
+final class ImageStore {
+
+    /** Sizes the images are stored in, in pixels of their longer side, smallest first */
+    static final int[] SIZES = { 256, 1024 };
+
+    private static final int JPEG_QUALITY = 85;
+
+    /** Images not used by any product are kept this long, in case the product is being edited */
+    private static final long UNUSED_IMAGE_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    ImageStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns true if the value has the form of an image hash.
+     */
+    static boolean isHash(String value) {
+        return value != null && value.matches("[0-9a-f]{40}");
+    }
+
+    /**
+     * Reads the image and stores it in all sizes, unless an identical image is already stored.
+     *
+     * @return the hash that names the image
+     * @throws IOException if the image can't be read or decoded
+     */
+    String store(ContentResolver resolver, Uri source) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+
+        // Copy the original once while hashing it, it is decoded from the copy
+        File original = File.createTempFile("original", TEMP_SUFFIX, mDirectory);
+        try {
+            String hash = copy(resolver, source, original);
+            if (isStored(hash)) {
+                // Start the grace period of an unused image over, the product being edited
+                // will use it
+                touch(hash);
+                return hash;
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(original.getPath(), options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Not an image: " + source);
+            }
+
+            for (int size : SIZES) {
+                writeSize(original, options.outWidth, options.outHeight, size, getFile(hash, size));
+            }
+            return hash;
+        } finally {
+            original.delete();
+        }
+    }
+
+    /**
+     * Returns the file of the image in the smallest stored size that is at least the requested
+     * size, or the largest size if none is.
+     *
+     * @param size the size the image is shown at, or 0 for the largest size
+     * @throws FileNotFoundException if the image isn't stored
+     */
+    File getFile(String hash, int size) throws FileNotFoundException {
+        if (!isHash(hash)) {
+            throw new FileNotFoundException("No image " + hash);
+        }
+
+        int storedSize = SIZES[SIZES.length - 1];
+        for (int candidate : SIZES) {
+            if (size > 0 && candidate >= size) {
+                storedSize = candidate;
+                break;
+            }
+        }
+
+        File file = getFile(hash, storedSize);
+        if (!file.exists()) {
+            throw new FileNotFoundException("No image " + hash);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the images that no product uses anymore, and temporary files left behind by
+     * stores that were interrupted.
+     */
+    void prune(Set<String> usedHashes) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - UNUSED_IMAGE_MAX_AGE_MS;
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf('_');
+            String hash = separator > 0 ? name.substring(0, separator) : null;
+            if (file.lastModified() < cutoff && (hash == null || !usedHashes.contains(hash))) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getFile(String hash, int size) {
+        return new File(mDirectory, hash + "_" + size + ".jpg");
+    }
+
+    private boolean isStored(String hash) {
+        for (int size : SIZES) {
+            if (!getFile(hash, size).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void touch(String hash) {
+        long now = System.currentTimeMillis();
+        for (int size : SIZES) {
+            getFile(hash, size).setLastModified(now);
+        }
+    }
+
+    /**
+     * Copies the source into the file and returns the SHA-1 of its content.
+     */
+    private static String copy(ContentResolver resolver, Uri source, File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        InputStream input = resolver.openInputStream(source);
+        if (input == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        try {
+            input = new DigestInputStream(input, digest);
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b & 0xff));
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Writes the image scaled down to fit the size. Images that are already smaller keep their
+     * size. Transparent parts are drawn on white, since JPEG has no transparency.
+     */
+    private static void writeSize(File original, int width, int height, int size, File file)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (Math.max(width, height) / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap sampled = BitmapFactory.decodeFile(original.getPath(), options);
+        if (sampled == null) {
+            throw new IOException("Cannot decode " + original);
+        }
+
+        float scale = Math.min(1f, (float) size / Math.max(sampled.getWidth(), sampled.getHeight()));
+        Bitmap scaled = Bitmap.createBitmap(Math.max(1, Math.round(sampled.getWidth() * scale)),
+                Math.max(1, Math.round(sampled.getHeight() * scale)), Bitmap.Config.ARGB_8888);
+        try {
+            Canvas canvas = new Canvas(scaled);
+            canvas.drawColor(Color.WHITE);
+            canvas.drawBitmap(sampled, null, new Rect(0, 0, scaled.getWidth(), scaled.getHeight()),
+                    new Paint(Paint.FILTER_BITMAP_FLAG));
+            sampled.recycle();
+
+            // Write next to the file and rename, so readers never see half an image
+            File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+            } finally {
+                output.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Cannot write " + file);
+            }
+        } finally {
+            scaled.recycle();
+        }
+    }
+}
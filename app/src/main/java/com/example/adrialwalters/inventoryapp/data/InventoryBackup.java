@@ -0,0 +1,456 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Takes snapshots of the inventory database while it is in use, and restores them.
+ *
+ * The platform does not expose SQLite's online backup API, and every transaction it opens
+ * blocks writers, so a snapshot is copied in steps of {@link #STEP_SIZE} products with plain
+ * reads instead. With write-ahead logging these reads never wait for, or hold up, a sale. The
+ * provider reports every committed change with {@link #onCommitted(ChangeNotifier.Changes)}, and
+ * the products that changed while a step was copied are copied again afterwards. Only the last
+ * of these catch-up passes holds writers back, through the write gate of the provider, so the
+ * snapshot matches the database at a single point in time.
+ */
+final class InventoryBackup {
+
+    /** Number of products copied per step */
+    static final int STEP_SIZE = 200;
+
+    /** Catch-up passes run before writers are held back for the last one */
+    private static final int MAX_CATCH_UP_PASSES = 5;
+
+    /** Keeps damaged backup files instead of deleting them as the default handler does */
+    private static final DatabaseErrorHandler KEEP_FILE_ERROR_HANDLER = new DatabaseErrorHandler() {
+        @Override
+        public void onCorruption(SQLiteDatabase database) {
+            // The file is reported as invalid by verify()
+        }
+    };
+
+    /**
+     * Outcome of a snapshot or restore.
+     */
+    static final class Result {
+
+        /** Number of products in the snapshot */
+        final long rowCount;
+
+        /** Time taken by the whole operation */
+        final long durationMs;
+
+        /** Longest time writers were held back */
+        final long maxLockMs;
+
+        Result(long rowCount, long durationMs, long maxLockMs) {
+            this.rowCount = rowCount;
+            this.durationMs = durationMs;
+            this.maxLockMs = maxLockMs;
+        }
+    }
+
+    /** The live database */
+    private final SQLiteDatabase mDatabase;
+
+    /**
+     * Writers hold its read lock from their write until the change was posted. Holding the
+     * write lock therefore means that every committed change has been reported.
+     */
+    private final ReadWriteLock mWriteGate;
+
+    /** Products changed since the last catch-up pass, guarded by itself */
+    private final Set<Long> mChangedIds = new HashSet<>();
+
+    /** True if products were inserted or deleted since the last catch-up pass */
+    private boolean mTableChanged;
+
+    InventoryBackup(SQLiteDatabase database, ReadWriteLock writeGate) {
+        mDatabase = database;
+        mWriteGate = writeGate;
+    }
+
+    /**
+     * Records committed changes, so the products are copied again.
+     */
+    void onCommitted(ChangeNotifier.Changes changes) {
+        synchronized (mChangedIds) {
+            if (changes.isTableChanged()) {
+                mTableChanged = true;
+            } else {
+                mChangedIds.addAll(changes.getUpdatedIds());
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the database to the file, then verifies it. The file is only
+     * replaced once the snapshot is complete and valid.
+     *
+     * @throws IOException if the snapshot could not be written or is not valid
+     */
+    Result snapshot(File target) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long lockTime;
+        long expectedRows;
+
+        File temp = new File(target.getPath() + ".tmp");
+        SQLiteDatabase.deleteDatabase(temp);
+        SQLiteDatabase snapshot;
+        try {
+            snapshot = SQLiteDatabase.openOrCreateDatabase(temp, null);
+        } catch (SQLiteException e) {
+            throw new IOException("Cannot create " + temp + ": " + e.getMessage(), e);
+        }
+        try {
+            InventoryDbHelper.createSchema(snapshot);
+            snapshot.setVersion(InventoryDbHelper.DATABASE_VERSION);
+
+            // Copy all products, writers keep going meanwhile
+            copyAll(snapshot, false);
+
+            // Copy again what changed during the last pass, until nothing did
+            for (int pass = 0; pass < MAX_CATCH_UP_PASSES; pass++) {
+                if (!catchUp(snapshot)) {
+                    break;
+                }
+            }
+
+            // The last changes are copied with writers held back, so the snapshot is consistent
+            mWriteGate.writeLock().lock();
+            long lockStart = SystemClock.elapsedRealtime();
+            try {
+                catchUp(snapshot);
+                copySequence(mDatabase, snapshot, false);
+                expectedRows = DatabaseUtils.queryNumEntries(mDatabase, ProductEntry.TABLE_NAME);
+            } finally {
+                mWriteGate.writeLock().unlock();
+                lockTime = SystemClock.elapsedRealtime() - lockStart;
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Snapshot failed: " + e.getMessage(), e);
+        } finally {
+            snapshot.close();
+        }
+
+        long rows = verify(temp);
+        if (rows != expectedRows) {
+            throw new IOException("Snapshot has " + rows + " products but the database has " + expectedRows);
+        }
+
+        SQLiteDatabase.deleteDatabase(target);
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot rename " + temp + " to " + target);
+        }
+        return new Result(rows, SystemClock.elapsedRealtime() - startTime, lockTime);
+    }
+
+    /**
+     * Replaces all products with those of the snapshot. This runs in a single transaction, so
+     * the products are either all replaced or left alone.
+     *
+     * @throws IOException if the file is not a valid snapshot of the current schema version
+     */
+    Result restore(File source) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long rows = verify(source);
+
+        SQLiteDatabase snapshot = openSnapshot(source);
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.delete(ProductEntry.TABLE_NAME, null, null);
+
+            long lastId = 0;
+            while (true) {
+                Cursor cursor = snapshot.query(ProductEntry.TABLE_NAME, null,
+                        ProductEntry._ID + " > ?", new String[] { String.valueOf(lastId) },
+                        null, null, ProductEntry._ID, String.valueOf(STEP_SIZE));
+                try {
+                    if (!cursor.moveToLast()) {
+                        break;
+                    }
+                    lastId = cursor.getLong(cursor.getColumnIndexOrThrow(ProductEntry._ID));
+                    cursor.moveToPosition(-1);
+                    insertRows(mDatabase, cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            // Never hand out an id again that was used after the snapshot was taken
+            copySequence(snapshot, mDatabase, true);
+            mDatabase.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            throw new IOException("Restore failed: " + e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+            snapshot.close();
+        }
+
+        long durationMs = SystemClock.elapsedRealtime() - startTime;
+        return new Result(rows, durationMs, durationMs);
+    }
+
+    /**
+     * Checks that the file is an intact snapshot of the current schema version whose
+     * statistics match its products.
+     *
+     * @return the number of products in the snapshot
+     * @throws IOException if the file is not a valid snapshot
+     */
+    static long verify(File file) throws IOException {
+        SQLiteDatabase snapshot = openSnapshot(file);
+        try {
+            String integrity = DatabaseUtils.stringForQuery(snapshot, "PRAGMA integrity_check", null);
+            if (!"ok".equals(integrity)) {
+                throw new IOException("Snapshot is damaged: " + integrity);
+            }
+
+            int version = snapshot.getVersion();
+            if (version != InventoryDbHelper.DATABASE_VERSION) {
+                throw new IOException("Snapshot has schema version " + version +
+                        " but the app uses version " + InventoryDbHelper.DATABASE_VERSION);
+            }
+
+            // The statistics are kept by triggers, so they must add up to the products
+            long rows = DatabaseUtils.queryNumEntries(snapshot, ProductEntry.TABLE_NAME);
+            long units = DatabaseUtils.longForQuery(snapshot, "SELECT IFNULL(SUM(" +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) FROM " + ProductEntry.TABLE_NAME, null);
+            long statsRows = DatabaseUtils.longForQuery(snapshot, "SELECT " +
+                    StatsEntry.COLUMN_SKU_COUNT + " FROM " + StatsEntry.TABLE_NAME, null);
+            long statsUnits = DatabaseUtils.longForQuery(snapshot, "SELECT " +
+                    StatsEntry.COLUMN_UNIT_COUNT + " FROM " + StatsEntry.TABLE_NAME, null);
+            if (rows != statsRows || units != statsUnits) {
+                throw new IOException("Snapshot statistics don't match its products");
+            }
+            return rows;
+        } catch (SQLiteException e) {
+            throw new IOException("Not a valid snapshot: " + e.getMessage(), e);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static SQLiteDatabase openSnapshot(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No snapshot at " + file);
+        }
+        try {
+            return SQLiteDatabase.openDatabase(file.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY, KEEP_FILE_ERROR_HANDLER);
+        } catch (SQLiteException e) {
+            throw new IOException("Cannot open snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Brings the products of the snapshot in line with the database, one step at a time. For
+     * every range of ids the products missing from the snapshot are copied and those no
+     * longer in the database are removed.
+     *
+     * @param copyExisting whether products in both are copied again too, because they may
+     *                     have been updated without their ids being known. Otherwise they are
+     *                     left to the catch-up passes.
+     */
+    private void copyAll(SQLiteDatabase snapshot, boolean copyExisting) {
+        long afterId = 0;
+        while (true) {
+            List<Long> ids = queryIds(mDatabase, ProductEntry._ID + " > ?",
+                    new String[] { String.valueOf(afterId) }, String.valueOf(STEP_SIZE));
+            boolean lastStep = ids.size() < STEP_SIZE;
+            long upToId = lastStep ? Long.MAX_VALUE : ids.get(ids.size() - 1);
+
+            Set<Long> snapshotIds = new HashSet<>(queryIds(snapshot,
+                    ProductEntry._ID + " > ? AND " + ProductEntry._ID + " <= ?",
+                    new String[] { String.valueOf(afterId), String.valueOf(upToId) }, null));
+            List<Long> copyIds = new ArrayList<>();
+            for (long id : ids) {
+                if (!snapshotIds.remove(id) || copyExisting) {
+                    copyIds.add(id);
+                }
+            }
+
+            // What is left of the snapshot ids was deleted from the database
+            snapshot.beginTransaction();
+            try {
+                deleteRows(snapshot, snapshotIds);
+                if (copyExisting) {
+                    deleteRows(snapshot, copyIds);
+                }
+                copyRows(snapshot, copyIds);
+                snapshot.setTransactionSuccessful();
+            } finally {
+                snapshot.endTransaction();
+            }
+
+            if (lastStep) {
+                return;
+            }
+            afterId = upToId;
+        }
+    }
+
+    /**
+     * Copies the products that changed since the last pass.
+     *
+     * @return false if nothing changed
+     */
+    private boolean catchUp(SQLiteDatabase snapshot) {
+        List<Long> changedIds;
+        boolean tableChanged;
+        synchronized (mChangedIds) {
+            changedIds = new ArrayList<>(mChangedIds);
+            tableChanged = mTableChanged;
+            mChangedIds.clear();
+            mTableChanged = false;
+        }
+        if (changedIds.isEmpty() && !tableChanged) {
+            return false;
+        }
+
+        // Products were added or removed, or updated without their ids being known, so the
+        // changed ids may be incomplete. Copy every product again.
+        if (tableChanged) {
+            copyAll(snapshot, true);
+        }
+
+        for (int start = 0; start < changedIds.size(); start += STEP_SIZE) {
+            List<Long> step = changedIds.subList(start, Math.min(start + STEP_SIZE, changedIds.size()));
+            snapshot.beginTransaction();
+            try {
+                deleteRows(snapshot, step);
+                copyRows(snapshot, step);
+                snapshot.setTransactionSuccessful();
+            } finally {
+                snapshot.endTransaction();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ids of the products matching the selection, in order.
+     */
+    private static List<Long> queryIds(SQLiteDatabase database, String selection,
+                                       String[] selectionArgs, String limit) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME, new String[] { ProductEntry._ID },
+                selection, selectionArgs, null, null, ProductEntry._ID, limit);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Copies the products with the given ids from the database, if they still exist.
+     */
+    private void copyRows(SQLiteDatabase snapshot, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Cursor cursor = mDatabase.query(ProductEntry.TABLE_NAME, null,
+                ProductEntry._ID + " IN (" + TextUtils.join(",", ids) + ")", null,
+                null, null, null);
+        try {
+            insertRows(snapshot, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void deleteRows(SQLiteDatabase snapshot, Iterable<Long> ids) {
+        String idList = TextUtils.join(",", ids);
+        if (!idList.isEmpty()) {
+            snapshot.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + " IN (" + idList + ")", null);
+        }
+    }
+
+    /**
+     * Inserts all rows of the cursor with all their columns. Both databases have the same
+     * schema, so the columns are in the same order.
+     */
+    private static void insertRows(SQLiteDatabase target, Cursor cursor) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + ProductEntry.TABLE_NAME + " VALUES (");
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        SQLiteStatement insert = target.compileStatement(sql.append(")").toString());
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            insert.bindNull(i + 1);
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            insert.bindLong(i + 1, cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            insert.bindDouble(i + 1, cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            insert.bindBlob(i + 1, cursor.getBlob(i));
+                            break;
+                        default:
+                            insert.bindString(i + 1, cursor.getString(i));
+                            break;
+                    }
+                }
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Copies the last id handed out for the products table.
+     *
+     * @param keepHigher keep the target's value if it is higher
+     */
+    private static void copySequence(SQLiteDatabase from, SQLiteDatabase to, boolean keepHigher) {
+        long sequence = readSequence(from);
+        if (keepHigher) {
+            sequence = Math.max(sequence, readSequence(to));
+        }
+        String[] table = { ProductEntry.TABLE_NAME };
+        to.delete("sqlite_sequence", "name = ?", table);
+        to.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                new Object[] { ProductEntry.TABLE_NAME, sequence });
+    }
+
+    private static long readSequence(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[] { ProductEntry.TABLE_NAME });
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
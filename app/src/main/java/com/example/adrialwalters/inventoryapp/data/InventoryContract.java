@@ -2,9 +2,12 @@ package com.example.adrialwalters.inventoryapp.data;
 
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 public final class InventoryContract {
 
     // To prevent someone from accidentally instantiating the contract class,
@@ -32,6 +35,329 @@ public final class InventoryContract {
      */
     public static final String PATH_PRODUCTS= "products";
 
+    /**
+     * Path appended to the products URI for full-text search. For instance,
+     * content://com.example.adrialwalters.inventoryapp/products/search?q=mac finds the products
+     * with a brand, model or supplier name starting with "mac".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products URI for the products that need to be reordered, see
+     * {@link ProductEntry#CONTENT_LOW_STOCK_URI}.
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path appended to the products URI for an export of all products as a file, see
+     * {@link ProductEntry#buildExportUri(String)}.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /** Query parameter of the export URI with the file format, {@link #FORMAT_CSV} by default */
+    public static final String QUERY_PARAMETER_FORMAT = "format";
+
+    /** Export format with a header line followed by one comma separated line per product */
+    public static final String FORMAT_CSV = "csv";
+
+    /** Export format with one JSON object per line and product */
+    public static final String FORMAT_JSONL = "jsonl";
+
+    /** MIME type of an export in the {@link #FORMAT_CSV} format */
+    public static final String MIME_TYPE_CSV = "text/csv";
+
+    /** MIME type of an export in the {@link #FORMAT_JSONL} format */
+    public static final String MIME_TYPE_JSONL = "application/x-ndjson";
+
+    /** Query parameter of the search URI with the text to search for */
+    public static final String QUERY_PARAMETER_QUERY = "q";
+
+    /**
+     * Optional query parameter with the maximum number of rows to return. On the
+     * {@link ProductEntry#CONTENT_URI} it turns the query into a keyset paged query, see
+     * {@link ProductEntry#buildPageUri(String, String, long, int)}.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /** Query parameter of a paged query with the id of the last row of the previous page */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+
+    /**
+     * Query parameter of a paged query with the value of the sort column in the last row of the
+     * previous page. Not needed when sorting by id.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter of the products URI with the column to sort by, the id if not given. One of
+     * {@link ProductEntry#_ID}, {@link ProductEntry#COLUMN_PRODUCT_BRAND},
+     * {@link ProductEntry#COLUMN_PRODUCT_MODEL}, {@link ProductEntry#COLUMN_PRODUCT_PRICE},
+     * {@link ProductEntry#COLUMN_PRODUCT_QUANTITY} or {@link ProductEntry#COLUMN_PRODUCT_STOCK_VALUE},
+     * each backed by an index. Rows with the same value are ordered by id.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    /**
+     * Query parameter of the products URI with the sort direction, {@link #SORT_ASCENDING} if
+     * not given. It applies to the id too, so the index is read in one direction.
+     */
+    public static final String QUERY_PARAMETER_ORDER = "order";
+
+    /** Value of {@link #QUERY_PARAMETER_ORDER} for the smallest values first */
+    public static final String SORT_ASCENDING = "asc";
+
+    /** Value of {@link #QUERY_PARAMETER_ORDER} for the largest values first */
+    public static final String SORT_DESCENDING = "desc";
+
+    /** Query parameter of the products URI with the lowest price to return, inclusive */
+    public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+
+    /** Query parameter of the products URI with the highest price to return, inclusive */
+    public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+
+    /** Query parameter of the products URI with the lowest quantity to return, inclusive */
+    public static final String QUERY_PARAMETER_MIN_QUANTITY = "min_quantity";
+
+    /** Query parameter of the products URI with the highest quantity to return, inclusive */
+    public static final String QUERY_PARAMETER_MAX_QUANTITY = "max_quantity";
+
+    /** Query parameter of the products URI with the exact supplier name to return */
+    public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+    /**
+     * Path appended to the products URI for the inventory statistics, see {@link StatsEntry}.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Query parameter of the change notifications of the provider. When only existing products
+     * were updated, it holds their ids, see {@link ProductEntry#getChangedIds(Uri)}.
+     */
+    public static final String QUERY_PARAMETER_CHANGED_IDS = "changed";
+
+    /**
+     * Path appended to a single product URI to sell units of that product. For instance,
+     * content://com.example.adrialwalters.inventoryapp/products/3/sale sells one unit of product 3.
+     */
+    public static final String PATH_SALE = "sale";
+
+    /**
+     * Path appended to a single product URI to restock units of that product.
+     */
+    public static final String PATH_RESTOCK = "restock";
+
+    /**
+     * Path appended to a single product URI to open its image as a JPEG file, see
+     * {@link ProductEntry#buildImageUri(long, String)}.
+     */
+    public static final String PATH_IMAGE = "image";
+
+    /**
+     * Optional query parameter of the image URI with the size in pixels the image is shown at.
+     * The smallest stored image at least this large is returned.
+     */
+    public static final String QUERY_PARAMETER_SIZE = "size";
+
+    /**
+     * Query parameter of the image URI with the hash of the image, so the URI changes whenever
+     * the product gets another image and cached copies of the old one are not used.
+     */
+    public static final String QUERY_PARAMETER_VERSION = "v";
+
+    /** MIME type of product images */
+    public static final String MIME_TYPE_IMAGE = "image/jpeg";
+
+    /**
+     * Optional query parameter of the sale and restock URIs with the number of units to sell or
+     * restock. Defaults to 1.
+     */
+    public static final String QUERY_PARAMETER_DELTA = "delta";
+
+    /**
+     * Possible path for the statements of the provider that were slower than the threshold set
+     * with {@link #METHOD_SET_SLOW_QUERY_THRESHOLD}, see {@link SlowQueryEntry}.
+     */
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that applies a sale or restock URI passed
+     * as the arg. The result holds the new quantity in {@link #EXTRA_QUANTITY}, or -1 if the
+     * product does not exist or does not have enough stock for the sale.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /** Result extra with the quantity of the product after {@link #METHOD_ADJUST_QUANTITY} */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that inserts a batch of products in a
+     * single transaction. The rows are passed as a ContentValues array in {@link #EXTRA_VALUES}.
+     * The result holds {@link #EXTRA_INSERTED_COUNT}, {@link #EXTRA_REJECTED_ROWS} and
+     * {@link #EXTRA_REJECT_REASONS}.
+     */
+    public static final String METHOD_BULK_INSERT = "bulk_insert";
+
+    /** Extra holding the ContentValues array to insert with {@link #METHOD_BULK_INSERT} */
+    public static final String EXTRA_VALUES = "values";
+
+    /** Result extra with the number of rows that were inserted */
+    public static final String EXTRA_INSERTED_COUNT = "inserted_count";
+
+    /** Result extra with the positions of the rows that were rejected */
+    public static final String EXTRA_REJECTED_ROWS = "rejected_rows";
+
+    /** Result extra with the reason each row in {@link #EXTRA_REJECTED_ROWS} was rejected */
+    public static final String EXTRA_REJECT_REASONS = "reject_reasons";
+
+    /**
+     * Optional extra of {@link #METHOD_BULK_INSERT} with the URI of the file being imported.
+     * Together with {@link #EXTRA_IMPORT_RECORD_COUNT} it is saved as the import checkpoint in
+     * the transaction of the rows, so a resumed import never inserts a record twice.
+     */
+    public static final String EXTRA_IMPORT_SOURCE = "import_source";
+
+    /** Extra with the number of records of {@link #EXTRA_IMPORT_SOURCE} read up to the batch end */
+    public static final String EXTRA_IMPORT_RECORD_COUNT = "import_record_count";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that returns the checkpoint of an
+     * interrupted import in {@link #EXTRA_IMPORT_SOURCE} and {@link #EXTRA_IMPORT_RECORD_COUNT}.
+     * The result is empty if there is none.
+     */
+    public static final String METHOD_GET_IMPORT_CHECKPOINT = "get_import_checkpoint";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that forgets the import checkpoint, so the
+     * next import of the file starts from its first record.
+     */
+    public static final String METHOD_CLEAR_IMPORT_CHECKPOINT = "clear_import_checkpoint";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that inserts made up products for load
+     * tests, see {@link CatalogGenerator}. The arg is the number of products, and
+     * {@link #EXTRA_SEED} in the extras picks the products, 0 if not given. The products are
+     * written in transactions of {@link #GENERATE_BATCH_SIZE}. The result holds
+     * {@link #EXTRA_INSERTED_COUNT} and {@link #EXTRA_DURATION_MS}.
+     */
+    public static final String METHOD_GENERATE_CATALOG = "generate_catalog";
+
+    /** Extra with the seed of {@link #METHOD_GENERATE_CATALOG} */
+    public static final String EXTRA_SEED = "seed";
+
+    /** Number of products {@link #METHOD_GENERATE_CATALOG} writes per transaction */
+    public static final int GENERATE_BATCH_SIZE = 10000;
+
+    /**
+     * Name of the {@link ContentResolver#call} method that reports how well the cache of single
+     * product lookups is doing. The result holds {@link #EXTRA_CACHE_HITS},
+     * {@link #EXTRA_CACHE_MISSES}, {@link #EXTRA_CACHE_SIZE} and {@link #EXTRA_CACHE_MAX_SIZE}.
+     */
+    public static final String METHOD_PRODUCT_CACHE_STATS = "product_cache_stats";
+
+    /** Result extra with the number of product lookups answered from the cache */
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+
+    /** Result extra with the number of product lookups that had to read the database */
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+
+    /** Result extra with the number of products in the cache */
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+
+    /** Result extra with the maximum number of products the cache holds */
+    public static final String EXTRA_CACHE_MAX_SIZE = "cache_max_size";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that reports the latency and row counts of
+     * the provider since it started. The result holds a bundle per operation and URI, keyed by
+     * their names separated by a space, e.g. "query products" or "call metrics". Each holds
+     * {@link #EXTRA_METRICS_COUNT}, {@link #EXTRA_METRICS_ERRORS}, {@link #EXTRA_METRICS_P50_US},
+     * {@link #EXTRA_METRICS_P99_US}, {@link #EXTRA_METRICS_MAX_US}, {@link #EXTRA_METRICS_ROWS}
+     * and {@link #EXTRA_METRICS_MAX_ROWS}. URIs the provider doesn't know are named "unknown".
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    /** Metrics extra with the number of calls, including the failed ones */
+    public static final String EXTRA_METRICS_COUNT = "count";
+
+    /** Metrics extra with the number of calls that threw */
+    public static final String EXTRA_METRICS_ERRORS = "errors";
+
+    /** Metrics extra with the median latency in microseconds, rounded up to a power of two */
+    public static final String EXTRA_METRICS_P50_US = "p50_us";
+
+    /** Metrics extra with the 99th percentile latency in microseconds, rounded up to a power of two */
+    public static final String EXTRA_METRICS_P99_US = "p99_us";
+
+    /** Metrics extra with the longest latency in microseconds */
+    public static final String EXTRA_METRICS_MAX_US = "max_us";
+
+    /** Metrics extra with the total number of rows returned or changed */
+    public static final String EXTRA_METRICS_ROWS = "rows";
+
+    /** Metrics extra with the most rows returned or changed by one call */
+    public static final String EXTRA_METRICS_MAX_ROWS = "max_rows";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that turns on the slow query log. The arg
+     * is the threshold in milliseconds, statements of queries, updates and deletes that take at
+     * least this long are kept in {@link SlowQueryEntry#CONTENT_URI}. A null or negative arg
+     * turns the log off again. The log is off whenever the provider starts. The result holds
+     * the threshold in {@link #EXTRA_THRESHOLD_MS}, -1 if the log is off.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /** Result extra with the threshold of the slow query log in milliseconds */
+    public static final String EXTRA_THRESHOLD_MS = "threshold_ms";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that writes a consistent snapshot of the
+     * database while it stays in use. The arg is the path of the snapshot file, or null for a
+     * new file in the app's backup folder. The result holds {@link #EXTRA_BACKUP_PATH},
+     * {@link #EXTRA_ROW_COUNT}, {@link #EXTRA_DURATION_MS} and {@link #EXTRA_MAX_LOCK_MS}, or
+     * {@link #EXTRA_ERROR} if the snapshot failed.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that checks the snapshot whose path is the
+     * arg. The result holds {@link #EXTRA_ROW_COUNT}, or {@link #EXTRA_ERROR} if the snapshot is
+     * damaged or was made by a different database version.
+     */
+    public static final String METHOD_VERIFY_BACKUP = "verify_backup";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that replaces all products with those of
+     * the snapshot whose path is the arg. The snapshot is verified first. The result holds
+     * {@link #EXTRA_ROW_COUNT} and {@link #EXTRA_DURATION_MS}, or {@link #EXTRA_ERROR}.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Name of the {@link ContentResolver#call} method that copies the image whose URI is the
+     * arg into the app's own storage. Call it while the app may still read the URI, for instance
+     * right after the image was picked. The result holds {@link #EXTRA_IMAGE_HASH} to save in
+     * {@link ProductEntry#COLUMN_PRODUCT_IMAGE_HASH}, or {@link #EXTRA_ERROR}.
+     */
+    public static final String METHOD_STORE_IMAGE = "store_image";
+
+    /** Result extra with the hash of the stored image */
+    public static final String EXTRA_IMAGE_HASH = "image_hash";
+
+    /** Result extra with the path of the snapshot */
+    public static final String EXTRA_BACKUP_PATH = "backup_path";
+
+    /** Result extra with the number of products in the snapshot */
+    public static final String EXTRA_ROW_COUNT = "row_count";
+
+    /** Result extra with the time the operation took, in milliseconds */
+    public static final String EXTRA_DURATION_MS = "duration_ms";
+
+    /** Result extra with the longest time writes had to wait, in milliseconds */
+    public static final String EXTRA_MAX_LOCK_MS = "max_lock_ms";
+
+    /** Result extra with the reason the operation failed */
+    public static final String EXTRA_ERROR = "error";
+
     /**
      * Inner class that defines constant values for the products database table.
      * Each entry in the table represents a single product.
@@ -41,6 +367,18 @@ public final class InventoryContract {
         /** The content URI to access the product data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * The content URI to search products. Results are ranked by how many of the search
+         * terms match, best first.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI for the products whose quantity is at or below their reorder threshold.
+         * The most urgent products, with the largest shortfall, come first.
+         */
+        public static final Uri CONTENT_LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, PATH_LOW_STOCK);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -53,6 +391,159 @@ public final class InventoryContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "?" + PATH_PRODUCTS;
 
+        /**
+         * Reads the ids of the updated products from the URI of a change notification.
+         *
+         * @param uri passed to {@link android.database.ContentObserver#onChange(boolean, Uri)}
+         * @return the ids, or null if products were inserted or deleted or the changed products
+         * are not known, in which case everything should be reloaded
+         */
+        public static long[] getChangedIds(Uri uri) {
+            String changed = uri == null ? null : uri.getQueryParameter(QUERY_PARAMETER_CHANGED_IDS);
+            if (changed == null) {
+                return null;
+            }
+
+            String[] parts = changed.split(",");
+            long[] ids = new long[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Long.parseLong(parts[i]);
+            }
+            return ids;
+        }
+
+        /**
+         * Builds the URI for one page of products sorted by id.
+         *
+         * @param afterId id of the last product of the previous page, or 0 for the first page
+         * @param limit   number of products in the page
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return buildPageUri(_ID, null, afterId, limit);
+        }
+
+        /**
+         * Builds the URI for one page of products in ascending order, see
+         * {@link #buildPageUri(String, boolean, String, long, int)}.
+         */
+        public static Uri buildPageUri(String sortColumn, String afterKey, long afterId, int limit) {
+            return buildPageUri(sortColumn, false, afterKey, afterId, limit);
+        }
+
+        /**
+         * Builds the URI for one page of products. Pages are read with keyset pagination: instead
+         * of skipping rows, the query starts right after the last row of the previous page, so
+         * every page costs the same no matter how deep into the list it is. Rows with the same
+         * sort value are ordered by id.
+         *
+         * @param sortColumn column to sort by, see {@link InventoryContract#QUERY_PARAMETER_SORT}
+         * @param descending true for the largest values first
+         * @param afterKey   value of the sort column in the last product of the previous page
+         * @param afterId    id of the last product of the previous page, or 0 for the first page
+         * @param limit      number of products in the page
+         */
+        public static Uri buildPageUri(String sortColumn, boolean descending, String afterKey,
+                                       long afterId, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (descending) {
+                builder.appendQueryParameter(QUERY_PARAMETER_ORDER, SORT_DESCENDING);
+            }
+            if (afterId > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId));
+                if (afterKey != null) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * Builds the URI that searches the brand, model and supplier name of all products. Every
+         * word of the query is matched as a prefix.
+         *
+         * @param query text typed by the user
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, query)
+                    .build();
+        }
+
+        /**
+         * Builds the URI of an export of all products. Open it with
+         * {@link ContentResolver#openInputStream(Uri)}. The rows are written while they are
+         * read from the database, so exports of any size use the same amount of memory.
+         *
+         * @param format {@link #FORMAT_CSV} or {@link #FORMAT_JSONL}
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+
+        /**
+         * Builds the URI of the stored image of a product. The image is read with
+         * {@link ContentResolver#openInputStream(Uri)}.
+         *
+         * @param id   of the product
+         * @param hash value of {@link #COLUMN_PRODUCT_IMAGE_HASH}
+         */
+        public static Uri buildImageUri(long id, String hash) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_IMAGE)
+                    .appendQueryParameter(QUERY_PARAMETER_VERSION, hash)
+                    .build();
+        }
+
+        /**
+         * Returns the image URI asking for an image of the given size in pixels.
+         */
+        public static Uri buildImageUri(Uri imageUri, int size) {
+            return imageUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SIZE, String.valueOf(size))
+                    .build();
+        }
+
+        /**
+         * Returns true if the URI is the stored image of a product.
+         */
+        public static boolean isImageUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            return CONTENT_AUTHORITY.equals(uri.getAuthority()) && segments.size() == 3
+                    && PATH_PRODUCTS.equals(segments.get(0)) && PATH_IMAGE.equals(segments.get(2));
+        }
+
+        /**
+         * Builds the URI that sells the given number of units of a product.
+         *
+         * @param id    of the product
+         * @param delta number of units sold
+         */
+        public static Uri buildSaleUri(long id, int delta) {
+            return buildQuantityUri(id, PATH_SALE, delta);
+        }
+
+        /**
+         * Builds the URI that restocks the given number of units of a product.
+         *
+         * @param id    of the product
+         * @param delta number of units added to the stock
+         */
+        public static Uri buildRestockUri(long id, int delta) {
+            return buildQuantityUri(id, PATH_RESTOCK, delta);
+        }
+
+        private static Uri buildQuantityUri(long id, String path, int delta) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(path)
+                    .appendQueryParameter(QUERY_PARAMETER_DELTA, String.valueOf(delta))
+                    .build();
+        }
+
         /** Name of database table for products */
         public static final String TABLE_NAME = "products";
 
@@ -91,6 +582,22 @@ public final class InventoryContract {
          */
         public static final String COLUMN_PRODUCT_QUANTITY = "quantity";
 
+        /**
+         * Value of the stock, the price times the quantity. The database keeps it up to date, so
+         * it can't be written, and it is indexed so products can be sorted by it.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRODUCT_STOCK_VALUE = "stock_value";
+
+        /**
+         * Quantity at or below which the product should be reordered. 0 by default, so only
+         * products that are out of stock are listed as low on stock.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRODUCT_REORDER_THRESHOLD = "reorder_threshold";
+
         /**
          * Name of supplier.
          *
@@ -111,5 +618,134 @@ public final class InventoryContract {
          * Type: STRING
          */
         public static final String COLUMN_STRING_IMAGE_URI = "image";
+
+        /**
+         * Hash of the product image in the app's own storage, or NULL if the product has none.
+         * Set it to the result of {@link #METHOD_STORE_IMAGE} and read the image through
+         * {@link #buildImageUri(long, String)}. Takes the place of
+         * {@link #COLUMN_STRING_IMAGE_URI}, which is only used for products that don't have it.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_PRODUCT_IMAGE_HASH = "image_hash";
+    }
+
+    /**
+     * Inner class that defines the columns of the slow query log. The log is kept in memory by
+     * the provider, not in the database.
+     */
+    public static abstract class SlowQueryEntry implements BaseColumns {
+
+        /**
+         * The content URI of the statements that were slower than the threshold, newest first.
+         * Only the last {@link #MAX_ENTRIES} are kept. Deleting the URI empties the log.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SLOW_QUERIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /** Number of statements kept, older ones are dropped */
+        public static final int MAX_ENTRIES = 64;
+
+        /**
+         * Time the statement ended, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /**
+         * Entry point of the provider that ran the statement, e.g. "query" or "delete".
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * The SQL of the statement, with ? for the arguments.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_SQL = "sql";
+
+        /**
+         * The kind of each argument, e.g. "number, text(12)". The values aren't kept.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_ARGUMENTS = "arguments";
+
+        /**
+         * Time the statement took, including reading the rows of a query, in microseconds.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DURATION_US = "duration_us";
+
+        /**
+         * Number of rows returned or changed, or -1 if the statement failed.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROW_COUNT = "row_count";
+
+        /**
+         * The lines of EXPLAIN QUERY PLAN for the statement, one per line.
+         *
+         * Type: TEXT
+         */
+        public static final String COLUMN_QUERY_PLAN = "query_plan";
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory statistics. The statistics are
+     * a single row that the database keeps up to date on every change to the products table,
+     * so reading them costs the same no matter how many products there are.
+     */
+    public static abstract class StatsEntry implements BaseColumns {
+
+        /** The content URI to access the inventory statistics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the statistics row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** Name of database table for the statistics */
+        public static final String TABLE_NAME = "product_stats";
+
+        /**
+         * Number of products.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SKU_COUNT = "sku_count";
+
+        /**
+         * Sum of the quantity of all products.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNIT_COUNT = "unit_count";
+
+        /**
+         * Sum of price * quantity of all products.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+
+        /**
+         * Number of products with no stock left.
+         *
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package com.example.adrialwalters.inventoryapp.data;
 
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -12,12 +13,19 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = ProductEntry.class.getSimpleName();
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "inventory.db";
+    static final String DATABASE_NAME = "inventory.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must increment the database version
+     * and add the matching step to {@link InventoryMigrations#MIGRATIONS}.
      */
-    private static final int DATABASE_VERSION = 5;
+    static final int DATABASE_VERSION = 12;
+
+    /**
+     * Number of pages the write-ahead log may grow to before it is checkpointed back into the
+     * database file. Larger than the platform default, so imports checkpoint less often.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
 
     /**
      * Constructs a new instance of {@link InventoryDbHelper}.
@@ -26,13 +34,40 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     public InventoryDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // With write-ahead logging readers get their own connections and keep reading the last
+        // committed data while a write is in progress, instead of waiting for it to finish.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the schema is
+     * created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        // In WAL mode NORMAL only syncs at checkpoints and is still safe against app crashes
+        sqLiteDatabase.execSQL("PRAGMA synchronous = NORMAL");
+
+        // This pragma returns the new value, so it has to be run as a query
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
     }
 
     /**
-     * This is called when the database is created for the first time.
+     * This is called when the database is created for the first time. The base schema is created
+     * and then migrated, so new and upgraded databases always end up with the same schema.
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createSchema(sqLiteDatabase);
+    }
+
+    /**
+     * Creates the current schema in an empty database. Also used for backup snapshots, so they
+     * have exactly the same tables, indexes and triggers.
+     */
+    static void createSchema(SQLiteDatabase sqLiteDatabase) {
         // Create a String that contains the SQL statement to create the products table
         String SQL_CREATE_PRODUCTS_TABLE =
                 "CREATE TABLE " + ProductEntry.TABLE_NAME + "(" +
@@ -47,6 +82,9 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
 
         // Create the database
         sqLiteDatabase.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // Bring the base schema up to the current version
+        InventoryMigrations.migrate(sqLiteDatabase, InventoryMigrations.BASE_VERSION, DATABASE_VERSION);
     }
 
     /**
@@ -54,6 +92,6 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-
+        InventoryMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 }
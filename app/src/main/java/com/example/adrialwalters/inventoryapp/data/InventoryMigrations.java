@@ -0,0 +1,336 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+/**
+ * Ordered schema migrations for the inventory database. Each {@link Migration} upgrades the
+ * schema by exactly one version and runs in its own transaction, so user data is kept and a
+ * failing step never leaves the schema half migrated.
+ */
+final class InventoryMigrations {
+
+    /** Version of the schema created by {@link InventoryDbHelper#onCreate} before any migration */
+    static final int BASE_VERSION = 5;
+
+    /** Index on the brand column */
+    static final String INDEX_PRODUCTS_BRAND = "products_brand_index";
+
+    /** Index on the model column */
+    static final String INDEX_PRODUCTS_MODEL = "products_model_index";
+
+    /** Index on the supplier name column */
+    static final String INDEX_PRODUCTS_SUPPLIER = "products_supplier_index";
+
+    /** Index on the price column */
+    static final String INDEX_PRODUCTS_PRICE = "products_price_index";
+
+    /** Index on the quantity column */
+    static final String INDEX_PRODUCTS_QUANTITY = "products_quantity_index";
+
+    /** Index on the stock value column */
+    static final String INDEX_PRODUCTS_STOCK_VALUE = "products_stock_value_index";
+
+    /**
+     * Partial index that only holds the products at or below their reorder threshold, so listing
+     * them costs time in proportion to their number rather than the size of the catalog.
+     */
+    static final String INDEX_PRODUCTS_LOW_STOCK = "products_low_stock_index";
+
+    /**
+     * Condition for products that need to be reordered. Queries must use exactly this condition
+     * for SQLite to use {@link #INDEX_PRODUCTS_LOW_STOCK}.
+     */
+    static final String LOW_STOCK_SELECTION =
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= " + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD;
+
+    /**
+     * Full-text index over the brand, model and supplier columns. It is an external content
+     * table, so the text is only stored once in the products table.
+     */
+    static final String TABLE_PRODUCTS_FTS = "products_fts";
+
+    /**
+     * Table with at most one row, the file and number of committed records of an interrupted
+     * CSV import. It is written in the transaction of each imported batch.
+     */
+    static final String TABLE_IMPORT_CHECKPOINT = "import_checkpoint";
+
+    /** URI of the file being imported */
+    static final String COLUMN_IMPORT_SOURCE = "source";
+
+    /** Number of records of the file that are committed */
+    static final String COLUMN_IMPORT_RECORD_COUNT = "record_count";
+
+    /**
+     * A single schema upgrade from version - 1 to version.
+     */
+    abstract static class Migration {
+
+        /** Schema version after this migration has run */
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        /**
+         * Upgrade the schema. This is called inside a transaction.
+         */
+        abstract void migrate(SQLiteDatabase database);
+    }
+
+    /**
+     * All migrations, ordered by version. Add a new step here whenever
+     * {@link InventoryDbHelper#DATABASE_VERSION} is incremented.
+     */
+    static final Migration[] MIGRATIONS = {
+            // Version 6: indexes for filtering products by brand, model and supplier
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    createIndex(database, INDEX_PRODUCTS_BRAND, ProductEntry.COLUMN_PRODUCT_BRAND);
+                    createIndex(database, INDEX_PRODUCTS_MODEL, ProductEntry.COLUMN_PRODUCT_MODEL);
+                    createIndex(database, INDEX_PRODUCTS_SUPPLIER, ProductEntry.COLUMN_SUPPLIER_NAME);
+                }
+            },
+            // Version 7: full-text search over brand, model and supplier
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    createFullTextIndex(database);
+                }
+            },
+            // Version 8: inventory statistics kept up to date by triggers
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    createStatsTable(database);
+                }
+            },
+            // Version 9: reorder threshold per product and an index of the low-stock products
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    database.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT 0;");
+
+                    // Partial indexes need SQLite 3.8.0 (Android 5.0). Older versions list the
+                    // low-stock products with a table scan instead.
+                    if (supportsPartialIndexes(database)) {
+                        database.execSQL("CREATE INDEX " + INDEX_PRODUCTS_LOW_STOCK + " ON " +
+                                ProductEntry.TABLE_NAME + " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ")" +
+                                " WHERE " + LOW_STOCK_SELECTION + ";");
+                    }
+                }
+            },
+            // Version 10: hash of the product image kept in the app's own storage
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    database.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                            ProductEntry.COLUMN_PRODUCT_IMAGE_HASH + " TEXT;");
+                }
+            },
+            // Version 11: stored stock value and indexes for sorting by price, quantity and value
+            new Migration(11) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    createStockValueColumn(database);
+                    createIndex(database, INDEX_PRODUCTS_PRICE, ProductEntry.COLUMN_PRODUCT_PRICE);
+                    createIndex(database, INDEX_PRODUCTS_QUANTITY, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    createIndex(database, INDEX_PRODUCTS_STOCK_VALUE, ProductEntry.COLUMN_PRODUCT_STOCK_VALUE);
+                }
+            },
+            // Version 12: checkpoint of an interrupted import, committed together with its rows
+            new Migration(12) {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    database.execSQL("CREATE TABLE " + TABLE_IMPORT_CHECKPOINT + "(" +
+                            "_id INTEGER PRIMARY KEY CHECK (_id = 1), " +
+                            COLUMN_IMPORT_SOURCE + " TEXT NOT NULL, " +
+                            COLUMN_IMPORT_RECORD_COUNT + " INTEGER NOT NULL);");
+                }
+            },
+    };
+
+    // To prevent someone from accidentally instantiating this class,
+    // give it an empty constructor.
+    private InventoryMigrations() {}
+
+    /**
+     * Runs every migration after fromVersion up to and including toVersion, in order.
+     */
+    static void migrate(SQLiteDatabase database, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= fromVersion || migration.version > toVersion) {
+                continue;
+            }
+
+            database.beginTransaction();
+            try {
+                migration.migrate(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Creates the full-text index, the triggers that keep it in sync with the products table
+     * and fills it with the existing products.
+     */
+    private static void createFullTextIndex(SQLiteDatabase database) {
+        String columns = ProductEntry.COLUMN_PRODUCT_BRAND + ", " +
+                ProductEntry.COLUMN_PRODUCT_MODEL + ", " +
+                ProductEntry.COLUMN_SUPPLIER_NAME;
+        String newValues = "new." + ProductEntry.COLUMN_PRODUCT_BRAND + ", " +
+                "new." + ProductEntry.COLUMN_PRODUCT_MODEL + ", " +
+                "new." + ProductEntry.COLUMN_SUPPLIER_NAME;
+        String deleteOld = "DELETE FROM " + TABLE_PRODUCTS_FTS +
+                " WHERE docid = old." + ProductEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + TABLE_PRODUCTS_FTS + "(docid, " + columns + ")" +
+                " VALUES (new." + ProductEntry._ID + ", " + newValues + "); ";
+
+        database.execSQL("CREATE VIRTUAL TABLE " + TABLE_PRODUCTS_FTS + " USING fts4(" +
+                "content=\"" + ProductEntry.TABLE_NAME + "\", " + columns + ");");
+
+        // Only changes to the indexed columns touch the index, so sales don't
+        database.execSQL("CREATE TRIGGER products_fts_before_update" +
+                " BEFORE UPDATE OF " + columns + " ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + deleteOld + "END;");
+        database.execSQL("CREATE TRIGGER products_fts_after_update" +
+                " AFTER UPDATE OF " + columns + " ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + insertNew + "END;");
+        database.execSQL("CREATE TRIGGER products_fts_before_delete" +
+                " BEFORE DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + deleteOld + "END;");
+        database.execSQL("CREATE TRIGGER products_fts_after_insert" +
+                " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + insertNew + "END;");
+
+        // Index the products that already exist
+        database.execSQL("INSERT INTO " + TABLE_PRODUCTS_FTS + "(" + TABLE_PRODUCTS_FTS + ")" +
+                " VALUES ('rebuild');");
+    }
+
+    /**
+     * Returns true if the database has an index with the given name.
+     */
+    static boolean hasIndex(SQLiteDatabase database, String name) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[] { name }) > 0;
+    }
+
+    /**
+     * Returns true if the SQLite library is 3.8.0 or newer, which added partial indexes.
+     */
+    private static boolean supportsPartialIndexes(SQLiteDatabase database) {
+        String[] version = DatabaseUtils.stringForQuery(database, "SELECT sqlite_version()", null)
+                .split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
+    }
+
+    /**
+     * Creates the statistics table with its single row, fills it from the existing products and
+     * adds the triggers that apply every insert, update and delete to it.
+     */
+    private static void createStatsTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + "(" +
+                StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = 1), " +
+                StatsEntry.COLUMN_SKU_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_UNIT_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+
+        database.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT 1, " +
+                "COUNT(*), " +
+                "IFNULL(SUM(" + quantity("") + "), 0), " +
+                "IFNULL(SUM(" + value("") + "), 0), " +
+                "IFNULL(SUM(" + outOfStock("") + "), 0) " +
+                "FROM " + ProductEntry.TABLE_NAME + ";");
+
+        database.execSQL("CREATE TRIGGER product_stats_after_insert" +
+                " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + updateStats("+ 1", "+ " + quantity("new."),
+                "+ " + value("new."), "+ " + outOfStock("new.")) + " END;");
+        database.execSQL("CREATE TRIGGER product_stats_after_delete" +
+                " AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + updateStats("- 1", "- " + quantity("old."),
+                "- " + value("old."), "- " + outOfStock("old.")) + " END;");
+        database.execSQL("CREATE TRIGGER product_stats_after_update" +
+                " AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + updateStats("",
+                "+ " + quantity("new.") + " - " + quantity("old."),
+                "+ " + value("new.") + " - " + value("old."),
+                "+ " + outOfStock("new.") + " - " + outOfStock("old.")) + " END;");
+    }
+
+    /**
+     * Adds the stock value column, fills it from the existing products and adds the triggers
+     * that compute it on every insert and on every change of the price or quantity. Expression
+     * indexes need SQLite 3.9, so the value is stored to be indexed.
+     */
+    private static void createStockValueColumn(SQLiteDatabase database) {
+        database.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN " +
+                ProductEntry.COLUMN_PRODUCT_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0;");
+        database.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                ProductEntry.COLUMN_PRODUCT_STOCK_VALUE + " = " + value("") + ";");
+
+        // Only the stock value is written, so the triggers don't fire each other
+        String setValue = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+                ProductEntry.COLUMN_PRODUCT_STOCK_VALUE + " = " + value("new.") +
+                " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; ";
+        database.execSQL("CREATE TRIGGER products_stock_value_after_insert" +
+                " AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + setValue + "END;");
+        database.execSQL("CREATE TRIGGER products_stock_value_after_update" +
+                " AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " ON " + ProductEntry.TABLE_NAME +
+                " BEGIN " + setValue + "END;");
+    }
+
+    /**
+     * Builds the statement that adds the given expressions to the statistics row.
+     */
+    private static String updateStats(String skus, String units, String value, String outOfStock) {
+        return "UPDATE " + StatsEntry.TABLE_NAME + " SET " +
+                (skus.isEmpty() ? "" : StatsEntry.COLUMN_SKU_COUNT + " = " + StatsEntry.COLUMN_SKU_COUNT + " " + skus + ", ") +
+                StatsEntry.COLUMN_UNIT_COUNT + " = " + StatsEntry.COLUMN_UNIT_COUNT + " " + units + ", " +
+                StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE + " " + value + ", " +
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + outOfStock +
+                " WHERE " + StatsEntry._ID + " = 1;";
+    }
+
+    /** Quantity of a row, prefix is "new.", "old." or "" */
+    private static String quantity(String prefix) {
+        return "IFNULL(" + prefix + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", 0)";
+    }
+
+    /** Stock value of a row, prefix is "new.", "old." or "" */
+    private static String value(String prefix) {
+        return "(IFNULL(" + prefix + ProductEntry.COLUMN_PRODUCT_PRICE + ", 0) * " + quantity(prefix) + ")";
+    }
+
+    /** 1 if the row is out of stock, 0 otherwise, prefix is "new.", "old." or "" */
+    private static String outOfStock(String prefix) {
+        return "(" + quantity(prefix) + " <= 0)";
+    }
+
+    /**
+     * Creates an index on a single column of the products table.
+     */
+    private static void createIndex(SQLiteDatabase database, String name, String column) {
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + name +
+                " ON " + ProductEntry.TABLE_NAME + "(" + column + ");");
+    }
+}
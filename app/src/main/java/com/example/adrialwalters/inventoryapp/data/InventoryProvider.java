@@ -1,16 +1,56 @@
 package com.example.adrialwalters.inventoryapp.data;
 
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.SlowQueryEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -26,6 +66,81 @@ public class InventoryProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI that sells units of a single product */
+    private static final int PRODUCT_SALE = 102;
+
+    /** URI matcher code for the content URI that restocks units of a single product */
+    private static final int PRODUCT_RESTOCK = 103;
+
+    /** URI matcher code for the full-text search URI */
+    private static final int PRODUCT_SEARCH = 104;
+
+    /** URI matcher code for the inventory statistics URI */
+    private static final int PRODUCT_STATS = 105;
+
+    /** URI matcher code for the low-stock products URI */
+    private static final int PRODUCT_LOW_STOCK = 106;
+
+    /** URI matcher code for the export URI */
+    private static final int PRODUCT_EXPORT = 107;
+
+    /** URI matcher code for the image of a single product */
+    private static final int PRODUCT_IMAGE = 108;
+
+    /** URI matcher code for the slow query log */
+    private static final int SLOW_QUERIES = 109;
+
+    /** Names of the entry points in the metrics */
+    private static final String OPERATION_QUERY = "query";
+    private static final String OPERATION_INSERT = "insert";
+    private static final String OPERATION_BULK_INSERT = "bulk_insert";
+    private static final String OPERATION_UPDATE = "update";
+    private static final String OPERATION_DELETE = "delete";
+    private static final String OPERATION_OPEN_FILE = "open_file";
+    private static final String OPERATION_CALL = "call";
+    private static final String OPERATION_APPLY_BATCH = "apply_batch";
+
+    /** Name in the metrics of the URIs the matcher rejected */
+    private static final String URI_NAME_UNKNOWN = "unknown";
+
+    /** Name in the metrics of a batch, which has no URI of its own */
+    private static final String URI_NAME_BATCH = "batch";
+
+    /** Number of search results returned when the URI does not give a limit */
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    /** Number of products kept by the cache of single product lookups */
+    private static final int PRODUCT_CACHE_SIZE = 256;
+
+    /** Largest limit a caller may ask for */
+    private static final int MAX_LIMIT = 1000;
+
+    /**
+     * Columns products can be sorted by, with the index that holds them in order. The id is the
+     * rowid, which the table itself is ordered by.
+     */
+    private static final Map<String, String> SORT_INDEXES = new HashMap<>();
+
+    static {
+        SORT_INDEXES.put(ProductEntry._ID, null);
+        SORT_INDEXES.put(ProductEntry.COLUMN_PRODUCT_BRAND, InventoryMigrations.INDEX_PRODUCTS_BRAND);
+        SORT_INDEXES.put(ProductEntry.COLUMN_PRODUCT_MODEL, InventoryMigrations.INDEX_PRODUCTS_MODEL);
+        SORT_INDEXES.put(ProductEntry.COLUMN_PRODUCT_PRICE, InventoryMigrations.INDEX_PRODUCTS_PRICE);
+        SORT_INDEXES.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, InventoryMigrations.INDEX_PRODUCTS_QUANTITY);
+        SORT_INDEXES.put(ProductEntry.COLUMN_PRODUCT_STOCK_VALUE, InventoryMigrations.INDEX_PRODUCTS_STOCK_VALUE);
+    }
+
+    /** Query parameters that turn a query of the products URI into a list query */
+    private static final List<String> LIST_QUERY_PARAMETERS = Arrays.asList(
+            InventoryContract.QUERY_PARAMETER_LIMIT,
+            InventoryContract.QUERY_PARAMETER_SORT,
+            InventoryContract.QUERY_PARAMETER_ORDER,
+            InventoryContract.QUERY_PARAMETER_MIN_PRICE,
+            InventoryContract.QUERY_PARAMETER_MAX_PRICE,
+            InventoryContract.QUERY_PARAMETER_MIN_QUANTITY,
+            InventoryContract.QUERY_PARAMETER_MAX_QUANTITY,
+            InventoryContract.QUERY_PARAMETER_SUPPLIER);
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -33,6 +148,36 @@ public class InventoryProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * Columns that can be written when inserting a product. The order matches the bind
+     * arguments of {@link #SQL_INSERT_PRODUCT}.
+     */
+    private static final List<String> PRODUCT_INSERT_COLUMNS = Arrays.asList(
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_STRING_IMAGE_URI,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_HASH);
+
+    /** Sells units of a product, only if there is enough stock */
+    private static final String SQL_SALE =
+            "UPDATE " + ProductEntry.TABLE_NAME +
+                    " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - ?" +
+                    " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " >= ?";
+
+    /** Restocks units of a product */
+    private static final String SQL_RESTOCK =
+            "UPDATE " + ProductEntry.TABLE_NAME +
+                    " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ?" +
+                    " WHERE " + ProductEntry._ID + " = ?";
+
+    /** Insert statement compiled once per bulk insert and reused for every row */
+    private static final String SQL_INSERT_PRODUCT = buildInsertStatement();
+
     // Static initializer. This is run the first time anything is called from this class.
     static{
         // The calls to addURI() go here, for all of the content URI patterns that the provider
@@ -53,17 +198,139 @@ public class InventoryProvider extends ContentProvider {
         // "content://com.example.adrialwalters.inventoryapp/products" (without a number at the end)
         // doesn't match.
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URIs of the form "content://com.example.adrialwalters.inventoryapp/products/#/sale"
+        // and ".../products/#/restock" change the quantity of ONE product in place.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/#/" + InventoryContract.PATH_SALE, PRODUCT_SALE);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/#/" + InventoryContract.PATH_RESTOCK, PRODUCT_RESTOCK);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/products/search"
+        // runs a full-text search over the products.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_SEARCH, PRODUCT_SEARCH);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/products/stats"
+        // returns the single row of inventory statistics.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_STATS, PRODUCT_STATS);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/products/low_stock"
+        // returns the products that need to be reordered.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/products/export"
+        // is opened as a file with all products.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/" + InventoryContract.PATH_EXPORT, PRODUCT_EXPORT);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/products/#/image"
+        // is opened as the image file of ONE product.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_PRODUCTS + "/#/" + InventoryContract.PATH_IMAGE, PRODUCT_IMAGE);
+
+        // The content URI of the form "content://com.example.adrialwalters.inventoryapp/slow_queries"
+        // lists the statements that were slower than the threshold of the slow query log.
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
     }
 
+    /**
+     * Maps every product column to its qualified name for queries that join the products table,
+     * since the full-text table has columns with the same names.
+     */
+    private static final Map<String, String> sProductProjectionMap = new HashMap<>();
+
+    /** Every column of the products table, in the order they are kept by the product cache */
+    private static final List<String> PRODUCT_COLUMNS = Arrays.asList(
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_STRING_IMAGE_URI,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_HASH,
+            ProductEntry.COLUMN_PRODUCT_STOCK_VALUE);
+
+    static {
+        for (String column : PRODUCT_COLUMNS) {
+            sProductProjectionMap.put(column, ProductEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /** Orders low-stock products by their shortfall, largest first */
+    private static final String LOW_STOCK_SORT_ORDER =
+            "(" + ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD + " - " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") DESC, " +
+                    ProductEntry._ID;
+
+    /**
+     * Orders search results by the number of matched terms. offsets() returns four numbers
+     * separated by spaces for every match, so the number of matches is (spaces + 1) / 4.
+     */
+    private static final String SEARCH_SORT_ORDER =
+            "(length(offsets(" + InventoryMigrations.TABLE_PRODUCTS_FTS + ")) - " +
+                    "length(replace(offsets(" + InventoryMigrations.TABLE_PRODUCTS_FTS + "), ' ', '')) + 1) / 4 DESC, " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_BRAND + ", " +
+                    ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_PRODUCT_MODEL;
+
     /** Database helper object */
     private InventoryDbHelper mDbHelper;
 
+    /** Sends the change notifications, merged per frame */
+    private ChangeNotifier mChangeNotifier;
+
+    /**
+     * Changes made by the batch running on the current thread. While a batch is being applied,
+     * changes are collected here and only sent once the work is committed.
+     */
+    private final ThreadLocal<ChangeNotifier.Changes> mBatchChanges = new ThreadLocal<>();
+
+    /** Recently read products, for single product lookups */
+    private final ProductCache mProductCache = new ProductCache(PRODUCT_CACHE_SIZE);
+
+    /**
+     * Every write holds the read side from the write until its change has been posted. A
+     * backup holds the write side while it copies the last changes, so it sees every commit.
+     */
+    private final ReentrantReadWriteLock mWriteGate = new ReentrantReadWriteLock();
+
+    /** Snapshot that is being taken, or null */
+    private volatile InventoryBackup mBackup;
+
+    /** Held while a snapshot is taken or restored, so only one runs at a time */
+    private final Object mBackupLock = new Object();
+
+    /** Writes exports into their pipes, one thread per export that is being read */
+    private final ExecutorService mExportExecutor = Executors.newCachedThreadPool();
+
+    /** Product images in the app's own storage */
+    private ImageStore mImageStore;
+
+    /** Statements of list queries whose plan was checked, so each is only explained once */
+    private final Set<String> mCheckedQueryPlans = Collections.synchronizedSet(new HashSet<String>());
+
+    /** Whether the database has the partial low-stock index, null until first checked */
+    private volatile Boolean mHasLowStockIndex;
+
+    /** Latency and row counts of every entry point, by URI */
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    /** Statements slower than a threshold, off until turned on by a call */
+    private SlowQueryLog mSlowQueryLog;
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         mDbHelper = new InventoryDbHelper(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver());
+        mImageStore = new ImageStore(new File(getContext().getFilesDir(), "images"));
+        mSlowQueryLog = new SlowQueryLog(mDbHelper);
         return true;
     }
 
@@ -73,35 +340,451 @@ public class InventoryProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI. Cancelling the signal aborts the SQLite statement,
+     * also while the returned cursor is being filled, and throws an
+     * {@link android.os.OperationCanceledException}.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        // Find if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_QUERY, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            Cursor cursor = queryUri(match, uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            // Counting the rows runs the statement, so the time includes reading them. A cancelled
+            // or failed statement throws here, and nobody else will close the cursor then.
+            try {
+                rows = cursor.getCount();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            return cursor;
+        } finally {
+            mSlowQueryLog.end(OPERATION_QUERY, stats.end(start, rows), rows);
+        }
+    }
+
+    /**
+     * Performs the query for the URI the matcher gave the code for.
+     */
+    private Cursor queryUri(int match, Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // The cursor to be returned
         Cursor cursor;
 
-        // Find if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        // URI whose changes make the cursor out of date
+        Uri notificationUri = uri;
+
         switch (match) {
             case PRODUCTS:
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // Sort, filter and limit parameters turn the query into an index backed list query
+                if (!Collections.disjoint(uri.getQueryParameterNames(), LIST_QUERY_PARAMETERS)) {
+                    cursor = queryProductList(database, uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                }
+                mSlowQueryLog.noteQuery(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null);
+                cursor = database.query(false, ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
                 break;
             case PRODUCT_ID:
+                // Plain lookups of product columns are answered from the cache
+                if (selection == null && sortOrder == null &&
+                        (projection == null || PRODUCT_COLUMNS.containsAll(Arrays.asList(projection)))) {
+                    cursor = queryProduct(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                mSlowQueryLog.noteQuery(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null);
+                cursor = database.query(false, ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri, projection, cancellationSignal);
+                // Search results change whenever any product changes
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_STATS:
+                // The triggers keep this single row up to date, so this is one row lookup
+                mSlowQueryLog.noteQuery(StatsEntry.TABLE_NAME, projection, null, null, null, null);
+                cursor = database.query(StatsEntry.TABLE_NAME, projection, null, null,
+                        null, null, null);
+                // The statistics change whenever any product changes
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_LOW_STOCK:
+                cursor = queryLowStock(database, uri, projection, cancellationSignal);
+                // A product enters or leaves the list whenever its quantity changes
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case SLOW_QUERIES:
+                cursor = mSlowQueryLog.query(projection);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
         // Set notification URI on the Cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return cursor;
     }
 
+    /**
+     * Returns the name of the URI pattern in the metrics.
+     */
+    private static String getUriName(int match) {
+        switch (match) {
+            case PRODUCTS:
+                return "products";
+            case PRODUCT_ID:
+                return "product";
+            case PRODUCT_SALE:
+                return "sale";
+            case PRODUCT_RESTOCK:
+                return "restock";
+            case PRODUCT_SEARCH:
+                return "search";
+            case PRODUCT_STATS:
+                return "stats";
+            case PRODUCT_LOW_STOCK:
+                return "low_stock";
+            case PRODUCT_EXPORT:
+                return "export";
+            case PRODUCT_IMAGE:
+                return "image";
+            case SLOW_QUERIES:
+                return "slow_queries";
+            default:
+                return URI_NAME_UNKNOWN;
+        }
+    }
+
+    /**
+     * Reads a single product through the {@link ProductCache}. On a miss the whole row is read
+     * and cached, so later lookups of the product with any projection are hits.
+     */
+    private Cursor queryProduct(SQLiteDatabase database, long id, String[] projection) {
+        Object[] row = mProductCache.get(id);
+        if (row == null) {
+            // Read the generation first, so a write that happens during the query is noticed
+            long generation = mProductCache.getGeneration();
+            Cursor cursor = database.query(ProductEntry.TABLE_NAME,
+                    PRODUCT_COLUMNS.toArray(new String[PRODUCT_COLUMNS.size()]),
+                    ProductEntry._ID + "=?", new String[] { String.valueOf(id) },
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    row = new Object[PRODUCT_COLUMNS.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = readValue(cursor, i);
+                    }
+                    mProductCache.put(id, row, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        String[] columns = projection != null ? projection
+                : PRODUCT_COLUMNS.toArray(new String[PRODUCT_COLUMNS.size()]);
+        MatrixCursor result = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row[PRODUCT_COLUMNS.indexOf(columns[i])];
+            }
+            result.addRow(values);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the value of the column with its stored type.
+     */
+    private static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads products sorted and filtered by the query parameters of the URI. The rows are read
+     * by walking the index of the sort column, so they come out in order without a temporary
+     * B-tree, and range filters on the sort column seek into the index. Other filters are
+     * checked on the rows walked over.
+     *
+     * With a limit the query reads one page with keyset pagination. The page starts right after
+     * the row given by the after and after_key parameters, so the index seeks straight to it
+     * instead of skipping all earlier rows.
+     */
+    private Cursor queryProductList(SQLiteDatabase database, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, String sortOrder,
+                                    CancellationSignal cancellationSignal) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Products queried with parameters are sorted with the "
+                    + InventoryContract.QUERY_PARAMETER_SORT + " parameter");
+        }
+
+        String sortColumn = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_SORT);
+        if (sortColumn == null) {
+            sortColumn = ProductEntry._ID;
+        }
+        if (!SORT_INDEXES.containsKey(sortColumn)) {
+            throw new IllegalArgumentException("Products can't be sorted by " + sortColumn);
+        }
+
+        String order = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_ORDER);
+        boolean descending = InventoryContract.SORT_DESCENDING.equals(order);
+        if (order != null && !descending && !InventoryContract.SORT_ASCENDING.equals(order)) {
+            throw new IllegalArgumentException("Unknown sort order " + order);
+        }
+
+        // Keep the caller's selection and add the filters and the keyset condition to it
+        StringBuilder where = new StringBuilder();
+        List<String> whereArgs = new ArrayList<>();
+        if (selection != null) {
+            where.append("(").append(selection).append(")");
+            if (selectionArgs != null) {
+                whereArgs.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+
+        addRangeFilter(uri, ProductEntry.COLUMN_PRODUCT_PRICE, InventoryContract.QUERY_PARAMETER_MIN_PRICE,
+                InventoryContract.QUERY_PARAMETER_MAX_PRICE, where, whereArgs);
+        addRangeFilter(uri, ProductEntry.COLUMN_PRODUCT_QUANTITY, InventoryContract.QUERY_PARAMETER_MIN_QUANTITY,
+                InventoryContract.QUERY_PARAMETER_MAX_QUANTITY, where, whereArgs);
+        String supplier = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_SUPPLIER);
+        if (supplier != null) {
+            appendCondition(where, ProductEntry.COLUMN_SUPPLIER_NAME + " = ?");
+            whereArgs.add(supplier);
+        }
+
+        String afterId = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER);
+        if (afterId != null) {
+            // Make sure the id is a number before it is used
+            afterId = String.valueOf(Long.parseLong(afterId));
+            String after = descending ? " < ?" : " > ?";
+
+            if (sortColumn.equals(ProductEntry._ID)) {
+                appendCondition(where, ProductEntry._ID + after);
+                whereArgs.add(afterId);
+            } else {
+                String afterKey = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Paged queries sorted by " + sortColumn +
+                            " need the " + InventoryContract.QUERY_PARAMETER_AFTER_KEY + " parameter");
+                }
+
+                // Rows after (afterKey, afterId). The first condition lets the index seek to afterKey.
+                appendCondition(where, sortColumn + (descending ? " <= ?" : " >= ?") + " AND (" +
+                        sortColumn + after + " OR " + ProductEntry._ID + after + ")");
+                whereArgs.add(afterKey);
+                whereArgs.add(afterKey);
+                whereArgs.add(afterId);
+            }
+        }
+
+        // Rows with the same value are ordered by id in the same direction, so one walk of the
+        // index returns them in order
+        String direction = descending ? " DESC" : "";
+        String orderBy = sortColumn.equals(ProductEntry._ID)
+                ? ProductEntry._ID + direction
+                : sortColumn + direction + ", " + ProductEntry._ID + direction;
+
+        // Name the index, so SQLite never prefers the index of a filter and sorts afterwards
+        String sortIndex = SORT_INDEXES.get(sortColumn);
+        String table = ProductEntry.TABLE_NAME +
+                (sortIndex != null ? " INDEXED BY " + sortIndex : " NOT INDEXED");
+
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT) != null
+                ? String.valueOf(parseLimit(uri, MAX_LIMIT)) : null;
+        String whereClause = where.length() > 0 ? where.toString() : null;
+        String[] args = whereArgs.toArray(new String[whereArgs.size()]);
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                whereClause, null, null, orderBy, limit);
+        checkQueryPlan(database, sql, args);
+        mSlowQueryLog.noteStatement(sql, args);
+        return database.query(false, table, projection, whereClause, args,
+                null, null, orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Adds the condition for the range of a column given by the min and max parameters of the
+     * URI, if they are present.
+     */
+    private static void addRangeFilter(Uri uri, String column, String minParameter, String maxParameter,
+                                       StringBuilder where, List<String> whereArgs) {
+        String min = uri.getQueryParameter(minParameter);
+        if (min != null) {
+            // Make sure the bound is a number before it is used
+            appendCondition(where, column + " >= ?");
+            whereArgs.add(String.valueOf(Long.parseLong(min)));
+        }
+        String max = uri.getQueryParameter(maxParameter);
+        if (max != null) {
+            appendCondition(where, column + " <= ?");
+            whereArgs.add(String.valueOf(Long.parseLong(max)));
+        }
+    }
+
+    private static void appendCondition(StringBuilder where, String condition) {
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+        where.append(condition);
+    }
+
+    /**
+     * Logs a list query whose plan sorts the result in a temporary B-tree, which reads and sorts
+     * every matching row before the first one is returned. Naming the sort index prevents that
+     * for the parameters, this catches a selection of the caller that SQLite plans otherwise.
+     */
+    private void checkQueryPlan(SQLiteDatabase database, String sql, String[] args) {
+        if (!mCheckedQueryPlans.add(sql)) {
+            return;
+        }
+
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumnIndex = plan.getColumnIndex("detail");
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailColumnIndex);
+                if (detail != null && detail.contains("TEMP B-TREE")) {
+                    Log.w(TAG, "List query needs a temporary B-tree (" + detail + "): " + sql);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+    }
+
+    /**
+     * Finds the products whose brand, model or supplier name contain words starting with every
+     * word of the search query, ranked by the number of matching terms.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  CancellationSignal cancellationSignal) {
+        String matchQuery = buildMatchQuery(uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_QUERY));
+        if (matchQuery == null) {
+            // Nothing to search for, return an empty result
+            return new MatrixCursor(projection != null ? projection
+                    : sProductProjectionMap.keySet().toArray(new String[sProductProjectionMap.size()]));
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(InventoryMigrations.TABLE_PRODUCTS_FTS + " JOIN " + ProductEntry.TABLE_NAME +
+                " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID +
+                " = " + InventoryMigrations.TABLE_PRODUCTS_FTS + ".docid");
+        builder.setProjectionMap(sProductProjectionMap);
+
+        String selection = InventoryMigrations.TABLE_PRODUCTS_FTS + " MATCH ?";
+        String[] selectionArgs = new String[] { matchQuery };
+        String limit = String.valueOf(parseLimit(uri, DEFAULT_SEARCH_LIMIT));
+        if (mSlowQueryLog.isEnabled()) {
+            mSlowQueryLog.noteStatement(builder.buildQuery(projection, selection, null, null,
+                    SEARCH_SORT_ORDER, limit), selectionArgs);
+        }
+        return builder.query(database, projection, selection, selectionArgs,
+                null, null, SEARCH_SORT_ORDER, limit, cancellationSignal);
+    }
+
+    /**
+     * Lists the products at or below their reorder threshold, most urgent first. The partial
+     * index only holds these products, so the query reads just them and sorts them, however
+     * large the catalog is.
+     */
+    private Cursor queryLowStock(SQLiteDatabase database, Uri uri, String[] projection,
+                                 CancellationSignal cancellationSignal) {
+        if (mHasLowStockIndex == null) {
+            mHasLowStockIndex = InventoryMigrations.hasIndex(database,
+                    InventoryMigrations.INDEX_PRODUCTS_LOW_STOCK);
+        }
+
+        // Without statistics SQLite can't tell how small the index is, so name it explicitly
+        String table = ProductEntry.TABLE_NAME;
+        if (mHasLowStockIndex) {
+            table += " INDEXED BY " + InventoryMigrations.INDEX_PRODUCTS_LOW_STOCK;
+        }
+
+        String limit = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT) != null
+                ? String.valueOf(parseLimit(uri, MAX_LIMIT)) : null;
+        mSlowQueryLog.noteQuery(table, projection, InventoryMigrations.LOW_STOCK_SELECTION, null,
+                LOW_STOCK_SORT_ORDER, limit);
+        return database.query(false, table, projection, InventoryMigrations.LOW_STOCK_SELECTION, null,
+                null, null, LOW_STOCK_SORT_ORDER, limit, cancellationSignal);
+    }
+
+    /**
+     * Turns the text typed by the user into a full-text query that matches every word as a
+     * prefix, e.g. "mac pro" becomes "mac* pro*". Characters with a meaning in the query
+     * syntax are dropped.
+     *
+     * @return the query, or null if the text contains no words
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : text.split("\\s+")) {
+            StringBuilder term = new StringBuilder();
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    term.append(c);
+                }
+            }
+            if (term.length() > 0) {
+                matchQuery.append(matchQuery.length() == 0 ? "" : " ").append(term).append('*');
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Reads the {@link InventoryContract#QUERY_PARAMETER_LIMIT} of the URI.
+     */
+    private static int parseLimit(Uri uri, int defaultLimit) {
+        String limitString = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_LIMIT);
+        if (limitString == null) {
+            return defaultLimit;
+        }
+
+        int limit = Integer.parseInt(limitString);
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -111,20 +794,231 @@ public class InventoryProvider extends ContentProvider {
 
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case PRODUCT_LOW_STOCK:
                 return ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
             case PRODUCT_ID:
+            case PRODUCT_SALE:
+            case PRODUCT_RESTOCK:
                 return  ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_EXPORT:
+                return ProductExporter.getMimeType(getExportFormat(uri));
+            case PRODUCT_IMAGE:
+                return InventoryContract.MIME_TYPE_IMAGE;
+            case SLOW_QUERIES:
+                return SlowQueryEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Opens the image of a product, or an export of all products. The export rows are written
+     * into a pipe on a background thread while the caller reads the other end, so the export
+     * never has to fit in memory.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_OPEN_FILE, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            ParcelFileDescriptor descriptor = openFileUri(match, uri, mode);
+            // An export is written while the caller reads it, only opening the pipe is timed
+            rows = 0;
+            return descriptor;
+        } finally {
+            stats.end(start, rows);
+        }
+    }
+
+    /**
+     * Opens the file for the URI the matcher gave the code for.
+     */
+    private ParcelFileDescriptor openFileUri(int match, Uri uri, String mode) throws FileNotFoundException {
+        if (match == PRODUCT_IMAGE) {
+            return openImage(uri, mode);
+        }
+        if (match != PRODUCT_EXPORT) {
+            return super.openFile(uri, mode);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be opened for reading: " + uri);
+        }
+
+        final ProductExporter exporter = new ProductExporter(mDbHelper.getReadableDatabase(),
+                getExportFormat(uri));
+        final ParcelFileDescriptor[] pipe;
+        try {
+            // A reliable pipe tells the reader that an export failed, instead of only ending it
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe()
+                    : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe for " + uri + ": " + e.getMessage());
+        }
+
+        mExportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The pipe is closed here rather than by the exporter, so a failure can be
+                // reported on it
+                FileOutputStream output = new FileOutputStream(pipe[1].getFileDescriptor()) {
+                    @Override
+                    public void close() {
+                    }
+                };
+                try {
+                    exporter.writeTo(output);
+                } catch (IOException e) {
+                    // The reader closed the pipe before the end
+                    Log.w(TAG, "Export stopped", e);
+                    closeExport(pipe[1], e);
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Export failed", e);
+                    closeExport(pipe[1], e);
+                    return;
+                }
+                closeExport(pipe[1], null);
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Closes the writing end of an export pipe. Where the platform supports it, the reader is
+     * told about a failure, so it can tell a cut off export from a complete one.
+     */
+    private static void closeExport(ParcelFileDescriptor descriptor, Exception failure) {
+        try {
+            if (failure != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                descriptor.closeWithError("Export failed: " + failure.getMessage());
+            } else {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close export", e);
+        }
+    }
+
+    /**
+     * Opens the stored image of the product in the size asked for by the URI. The files are
+     * already scaled down, so they can be decoded without sampling.
+     */
+    private ParcelFileDescriptor openImage(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Images can only be opened for reading: " + uri);
+        }
+
+        int size = 0;
+        String sizeParameter = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_SIZE);
+        if (sizeParameter != null) {
+            try {
+                size = Integer.parseInt(sizeParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid image size " + sizeParameter);
+            }
+        }
+
+        // Go by the product rather than the version in the URI, so only images in use are served
+        // The product may have been deleted since the URI was handed out
+        String hash;
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_PRODUCT_IMAGE_HASH },
+                ProductEntry._ID + " = ?", new String[] { uri.getPathSegments().get(1) },
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new FileNotFoundException("No product " + uri);
+            }
+            hash = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+        return ParcelFileDescriptor.open(mImageStore.getFile(hash, size),
+                ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the MIME types of the export that match the filter.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PRODUCT_EXPORT) {
+            return null;
+        }
+
+        List<String> types = new ArrayList<>();
+        String format = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_FORMAT);
+        for (String candidate : new String[] { InventoryContract.FORMAT_CSV, InventoryContract.FORMAT_JSONL }) {
+            String type = ProductExporter.getMimeType(candidate);
+            if ((format == null || format.equals(candidate))
+                    && ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Opens the export in the format asked for by the MIME type filter, if the URI does not
+     * name a format itself.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) == PRODUCT_EXPORT
+                && uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_FORMAT) == null) {
+            String[] types = getStreamTypes(uri, mimeTypeFilter);
+            if (types == null) {
+                throw new FileNotFoundException("Cannot export products as " + mimeTypeFilter);
+            }
+            uri = ProductEntry.buildExportUri(InventoryContract.MIME_TYPE_JSONL.equals(types[0])
+                    ? InventoryContract.FORMAT_JSONL : InventoryContract.FORMAT_CSV);
+        }
+        return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+    }
+
+    /**
+     * Reads the format of an export URI, CSV if not given.
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_FORMAT);
+        if (format == null) {
+            return InventoryContract.FORMAT_CSV;
+        }
+        if (!ProductExporter.isSupportedFormat(format)) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        return format;
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_INSERT, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            Uri newUri = insertUri(match, uri, contentValues);
+            rows = newUri != null ? 1 : 0;
+            return newUri;
+        } finally {
+            stats.end(start, rows);
+        }
+    }
+
+    /**
+     * Inserts into the URI the matcher gave the code for.
+     */
+    private Uri insertUri(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             // Insert operation will always be implemented on the products table as a whole
             // not on a specific product
@@ -139,6 +1033,504 @@ public class InventoryProvider extends ContentProvider {
      * Helper method to insert new data into the provider with the given ContentValues.
      */
     private Uri insertProduct(Uri uri, ContentValues contentValues) {
+        mWriteGate.readLock().lock();
+        try {
+            // Make sure all required values are present and valid
+            validateNewProduct(contentValues);
+
+            // Get writeable database
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            // Row ID of the newly inserted row, or -1 if an error occurred
+            long rowId = database.insert(ProductEntry.TABLE_NAME, null, contentValues);
+            // If the ID is -1, then the insertion failed. Log an error and return null.
+            if (rowId == -1) {
+                Log.e(TAG, "Failed to insert row for " + uri);
+                return null;
+            }
+
+            // Notify all listeners that a product was added
+            notifyTableChanged();
+
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, rowId);
+        } finally {
+            mWriteGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert a batch of products. The whole batch is written in a single transaction, so
+     * listeners are only notified once no matter how many rows were inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_BULK_INSERT, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            int inserted = bulkInsertUri(match, uri, values);
+            rows = inserted;
+            return inserted;
+        } finally {
+            stats.end(start, rows);
+        }
+    }
+
+    /**
+     * Inserts the batch into the URI the matcher gave the code for.
+     */
+    private int bulkInsertUri(int match, Uri uri, ContentValues[] values) {
+        switch (match) {
+            case PRODUCTS:
+                List<Integer> rejectedRows = new ArrayList<>();
+                List<String> rejectReasons = new ArrayList<>();
+                int inserted = bulkInsertProducts(uri, values, rejectedRows, rejectReasons, null);
+                for (int i = 0; i < rejectedRows.size(); i++) {
+                    Log.w(TAG, "Rejected row " + rejectedRows.get(i) + ": " + rejectReasons.get(i));
+                }
+                return inserted;
+            default:
+                throw new IllegalArgumentException("Insertion not supported for " + uri);
+        }
+    }
+
+    /**
+     * Handles the provider specific methods declared in {@link InventoryContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_CALL, method);
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            rows = 0;
+            return result;
+        } finally {
+            stats.end(start, rows);
+        }
+    }
+
+    /**
+     * Runs the provider specific method.
+     */
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case InventoryContract.METHOD_BULK_INSERT:
+                return callBulkInsert(extras);
+            case InventoryContract.METHOD_GET_IMPORT_CHECKPOINT:
+                return callGetImportCheckpoint();
+            case InventoryContract.METHOD_CLEAR_IMPORT_CHECKPOINT:
+                return callClearImportCheckpoint();
+            case InventoryContract.METHOD_GENERATE_CATALOG:
+                return callGenerateCatalog(arg, extras);
+            case InventoryContract.METHOD_ADJUST_QUANTITY:
+                return callAdjustQuantity(arg);
+            case InventoryContract.METHOD_PRODUCT_CACHE_STATS:
+                return callProductCacheStats();
+            case InventoryContract.METHOD_METRICS:
+                return mMetrics.toBundle();
+            case InventoryContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                return callSetSlowQueryThreshold(arg);
+            case InventoryContract.METHOD_BACKUP:
+                return callBackup(arg);
+            case InventoryContract.METHOD_VERIFY_BACKUP:
+                return callVerifyBackup(arg);
+            case InventoryContract.METHOD_RESTORE:
+                return callRestore(arg);
+            case InventoryContract.METHOD_STORE_IMAGE:
+                return callStoreImage(arg);
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Writes the latency and row counts of every entry point and the state of the product
+     * cache, for {@code adb shell dumpsys activity provider InventoryProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println();
+        writer.println("Product cache: " + mProductCache.size() + " of " + mProductCache.maxSize() +
+                " rows, " + mProductCache.getHitCount() + " hits, " + mProductCache.getMissCount() +
+                " misses");
+    }
+
+    /**
+     * Turns the slow query log on with the threshold in milliseconds passed as arg, or off if
+     * there is none.
+     */
+    private Bundle callSetSlowQueryThreshold(String arg) {
+        long thresholdMs = -1;
+        if (arg != null) {
+            try {
+                thresholdMs = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + arg);
+            }
+        }
+        mSlowQueryLog.setThresholdMillis(thresholdMs);
+
+        Bundle result = new Bundle();
+        result.putLong(InventoryContract.EXTRA_THRESHOLD_MS, mSlowQueryLog.getThresholdMillis());
+        return result;
+    }
+
+    /**
+     * Reports the hit and miss counts and the size of the product cache.
+     */
+    private Bundle callProductCacheStats() {
+        Bundle result = new Bundle();
+        result.putLong(InventoryContract.EXTRA_CACHE_HITS, mProductCache.getHitCount());
+        result.putLong(InventoryContract.EXTRA_CACHE_MISSES, mProductCache.getMissCount());
+        result.putInt(InventoryContract.EXTRA_CACHE_SIZE, mProductCache.size());
+        result.putInt(InventoryContract.EXTRA_CACHE_MAX_SIZE, mProductCache.maxSize());
+        return result;
+    }
+
+    /**
+     * Copies the image whose URI is passed as arg into the image store. Images that no product
+     * uses anymore are deleted at the same time.
+     */
+    private Bundle callStoreImage(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Image URI required");
+        }
+
+        Bundle result = new Bundle();
+        String hash;
+        try {
+            hash = mImageStore.store(getContext().getContentResolver(), Uri.parse(arg));
+            result.putString(InventoryContract.EXTRA_IMAGE_HASH, hash);
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Failed to store image " + arg, e);
+            result.putString(InventoryContract.EXTRA_ERROR, e.getMessage());
+            return result;
+        }
+
+        // The image just stored isn't used by any product yet, but the editor will save it with one
+        Set<String> usedHashes = new HashSet<>();
+        usedHashes.add(hash);
+        Cursor cursor = mDbHelper.getReadableDatabase().query(true, ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_PRODUCT_IMAGE_HASH },
+                ProductEntry.COLUMN_PRODUCT_IMAGE_HASH + " IS NOT NULL", null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                usedHashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        mImageStore.prune(usedHashes);
+        return result;
+    }
+
+    /**
+     * Writes a snapshot of the database to the path passed as arg, or to a new file in the
+     * backup folder. Sales keep going while the snapshot is taken.
+     */
+    private Bundle callBackup(String arg) {
+        File file;
+        if (arg != null) {
+            file = new File(arg);
+        } else {
+            File folder = new File(getContext().getFilesDir(), "backups");
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IllegalStateException("Cannot create " + folder);
+            }
+            file = new File(folder, "inventory-" +
+                    new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".db");
+        }
+
+        Bundle result = new Bundle();
+        synchronized (mBackupLock) {
+            InventoryBackup backup = new InventoryBackup(mDbHelper.getWritableDatabase(), mWriteGate);
+            mBackup = backup;
+            try {
+                InventoryBackup.Result snapshot = backup.snapshot(file);
+                result.putString(InventoryContract.EXTRA_BACKUP_PATH, file.getPath());
+                result.putLong(InventoryContract.EXTRA_ROW_COUNT, snapshot.rowCount);
+                result.putLong(InventoryContract.EXTRA_DURATION_MS, snapshot.durationMs);
+                result.putLong(InventoryContract.EXTRA_MAX_LOCK_MS, snapshot.maxLockMs);
+                Log.i(TAG, "Snapshot of " + snapshot.rowCount + " products took " + snapshot.durationMs +
+                        " ms, writes waited at most " + snapshot.maxLockMs + " ms");
+            } catch (IOException e) {
+                Log.e(TAG, "Snapshot failed", e);
+                result.putString(InventoryContract.EXTRA_ERROR, e.getMessage());
+            } finally {
+                mBackup = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks the snapshot whose path is passed as arg.
+     */
+    private Bundle callVerifyBackup(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Snapshot path required");
+        }
+
+        Bundle result = new Bundle();
+        try {
+            result.putLong(InventoryContract.EXTRA_ROW_COUNT, InventoryBackup.verify(new File(arg)));
+        } catch (IOException e) {
+            result.putString(InventoryContract.EXTRA_ERROR, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Replaces all products with those of the snapshot whose path is passed as arg.
+     */
+    private Bundle callRestore(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Snapshot path required");
+        }
+
+        Bundle result = new Bundle();
+        synchronized (mBackupLock) {
+            mWriteGate.readLock().lock();
+            try {
+                InventoryBackup.Result restore = new InventoryBackup(mDbHelper.getWritableDatabase(),
+                        mWriteGate).restore(new File(arg));
+                result.putLong(InventoryContract.EXTRA_ROW_COUNT, restore.rowCount);
+                result.putLong(InventoryContract.EXTRA_DURATION_MS, restore.durationMs);
+
+                // Every product may have changed
+                mProductCache.invalidateAll();
+                notifyTableChanged();
+            } catch (IOException e) {
+                Log.e(TAG, "Restore failed", e);
+                result.putString(InventoryContract.EXTRA_ERROR, e.getMessage());
+            } finally {
+                mWriteGate.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inserts the {@link InventoryContract#EXTRA_VALUES} of the given extras and reports the
+     * number of inserted rows along with the position and reason of every rejected row.
+     */
+    private Bundle callBulkInsert(Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException("Bulk insert requires " + InventoryContract.EXTRA_VALUES);
+        }
+
+        // The array comes back from the Bundle as Parcelable[], so copy it over
+        Parcelable[] parcelables = extras.getParcelableArray(InventoryContract.EXTRA_VALUES);
+        if (parcelables == null) {
+            throw new IllegalArgumentException("Bulk insert requires " + InventoryContract.EXTRA_VALUES);
+        }
+        ContentValues[] values = new ContentValues[parcelables.length];
+        for (int i = 0; i < parcelables.length; i++) {
+            values[i] = (ContentValues) parcelables[i];
+        }
+
+        // Where an import continues if this batch is committed
+        ContentValues checkpoint = null;
+        String importSource = extras.getString(InventoryContract.EXTRA_IMPORT_SOURCE);
+        if (importSource != null) {
+            checkpoint = new ContentValues();
+            checkpoint.put("_id", 1);
+            checkpoint.put(InventoryMigrations.COLUMN_IMPORT_SOURCE, importSource);
+            checkpoint.put(InventoryMigrations.COLUMN_IMPORT_RECORD_COUNT,
+                    extras.getLong(InventoryContract.EXTRA_IMPORT_RECORD_COUNT));
+        }
+
+        List<Integer> rejectedRows = new ArrayList<>();
+        List<String> rejectReasons = new ArrayList<>();
+        int inserted = bulkInsertProducts(ProductEntry.CONTENT_URI, values, rejectedRows, rejectReasons,
+                checkpoint);
+
+        int[] rows = new int[rejectedRows.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rejectedRows.get(i);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_INSERTED_COUNT, inserted);
+        result.putIntArray(InventoryContract.EXTRA_REJECTED_ROWS, rows);
+        result.putStringArray(InventoryContract.EXTRA_REJECT_REASONS,
+                rejectReasons.toArray(new String[rejectReasons.size()]));
+        return result;
+    }
+
+    /**
+     * Returns the checkpoint of the interrupted import, or an empty bundle if there is none.
+     */
+    private Bundle callGetImportCheckpoint() {
+        Bundle result = new Bundle();
+        String[] columns = {
+                InventoryMigrations.COLUMN_IMPORT_SOURCE, InventoryMigrations.COLUMN_IMPORT_RECORD_COUNT };
+        Cursor cursor = mDbHelper.getReadableDatabase().query(InventoryMigrations.TABLE_IMPORT_CHECKPOINT,
+                columns, null, null, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                result.putString(InventoryContract.EXTRA_IMPORT_SOURCE, cursor.getString(0));
+                result.putLong(InventoryContract.EXTRA_IMPORT_RECORD_COUNT, cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the checkpoint of the interrupted import.
+     */
+    private Bundle callClearImportCheckpoint() {
+        mWriteGate.readLock().lock();
+        try {
+            mDbHelper.getWritableDatabase()
+                    .delete(InventoryMigrations.TABLE_IMPORT_CHECKPOINT, null, null);
+        } finally {
+            mWriteGate.readLock().unlock();
+        }
+        return new Bundle();
+    }
+
+    /**
+     * Validates and inserts every row of the batch through one compiled statement inside a
+     * single transaction. Rows that fail validation or violate a constraint are skipped, and
+     * their index and reason are added to rejectedRows and rejectReasons. Any other database
+     * error, like a full disk, rolls back the whole batch.
+     *
+     * @param checkpoint row of the import checkpoint table written in the same transaction, or null
+     * @return the number of rows inserted
+     */
+    private int bulkInsertProducts(Uri uri, ContentValues[] values, List<Integer> rejectedRows,
+                                   List<String> rejectReasons, ContentValues checkpoint) {
+        mWriteGate.readLock().lock();
+        try {
+            int inserted = 0;
+
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransactionNonExclusive();
+            SQLiteStatement statement = null;
+            try {
+                statement = database.compileStatement(SQL_INSERT_PRODUCT);
+                for (int i = 0; i < values.length; i++) {
+                    ContentValues row = values[i];
+                    try {
+                        if (row == null) {
+                            throw new IllegalArgumentException("Product values required");
+                        }
+                        validateNewProduct(row);
+                        for (String column : row.keySet()) {
+                            if (!PRODUCT_INSERT_COLUMNS.contains(column)) {
+                                throw new IllegalArgumentException("Unknown column " + column);
+                            }
+                        }
+
+                        // Bind every column, missing values are bound as NULL except the reorder
+                        // threshold, which can't be NULL and defaults to 0
+                        for (int column = 0; column < PRODUCT_INSERT_COLUMNS.size(); column++) {
+                            String name = PRODUCT_INSERT_COLUMNS.get(column);
+                            Object value = row.get(name);
+                            if (value == null && name.equals(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+                                value = 0;
+                            }
+                            DatabaseUtils.bindObjectToProgram(statement, column + 1, value);
+                        }
+                        statement.executeInsert();
+                        inserted++;
+                    } catch (IllegalArgumentException | SQLiteConstraintException e) {
+                        rejectedRows.add(i);
+                        rejectReasons.add(e.getMessage());
+                    }
+                }
+                if (checkpoint != null) {
+                    database.insertWithOnConflict(InventoryMigrations.TABLE_IMPORT_CHECKPOINT, null,
+                            checkpoint, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                database.endTransaction();
+            }
+
+            if (inserted != 0) {
+                // Notify all listeners once for the whole batch
+                notifyTableChanged();
+            }
+
+            return inserted;
+        } finally {
+            mWriteGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the number of made up products passed as arg. Each batch is its own transaction,
+     * so the list and other writers get the database in between.
+     */
+    private Bundle callGenerateCatalog(String arg, Bundle extras) {
+        int count;
+        try {
+            count = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid product count " + arg);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid product count " + arg);
+        }
+
+        long seed = extras != null ? extras.getLong(InventoryContract.EXTRA_SEED) : 0;
+        CatalogGenerator generator = new CatalogGenerator(getContext().getPackageName(), seed);
+        long start = SystemClock.elapsedRealtime();
+
+        int inserted = 0;
+        List<Integer> rejectedRows = new ArrayList<>();
+        List<String> rejectReasons = new ArrayList<>();
+        for (int first = 0; first < count; first += InventoryContract.GENERATE_BATCH_SIZE) {
+            ContentValues[] products = generator.next(
+                    Math.min(InventoryContract.GENERATE_BATCH_SIZE, count - first));
+            inserted += bulkInsertProducts(ProductEntry.CONTENT_URI, products, rejectedRows, rejectReasons,
+                    null);
+        }
+        if (!rejectedRows.isEmpty()) {
+            Log.w(TAG, rejectedRows.size() + " generated products rejected: " + rejectReasons.get(0));
+        }
+
+        long durationMs = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Generated " + inserted + " products with seed " + seed + " in " + durationMs + " ms");
+
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_INSERTED_COUNT, inserted);
+        result.putLong(InventoryContract.EXTRA_DURATION_MS, durationMs);
+        return result;
+    }
+
+    /**
+     * Builds the INSERT statement for {@link #PRODUCT_INSERT_COLUMNS}.
+     */
+    private static String buildInsertStatement() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(ProductEntry.TABLE_NAME)
+                .append(" (")
+                .append(TextUtils.join(", ", PRODUCT_INSERT_COLUMNS))
+                .append(") VALUES (");
+        for (int i = 0; i < PRODUCT_INSERT_COLUMNS.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Checks that the given values describe a valid new product.
+     *
+     * @throws IllegalArgumentException if a required value is missing or invalid
+     */
+    private static void validateNewProduct(ContentValues contentValues) {
         // Check that the name is not null
         String productBrand = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND);
         if (productBrand == null) {
@@ -164,28 +1556,43 @@ public class InventoryProvider extends ContentProvider {
             throw new IllegalArgumentException("Quantity must be greater than 0");
         }
 
+        // Check if reorder threshold < 0, it is optional
+        Integer reorderThreshold = contentValues.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+        if (reorderThreshold != null && reorderThreshold < 0) {
+            throw new IllegalArgumentException("Reorder threshold must be greater than 0");
+        }
+
         // Check that the name is not null
         String supplierName = contentValues.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
         if (supplierName == null) {
             throw new IllegalArgumentException("Supplier name required");
         }
 
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        validateImageHash(contentValues);
+        validateComputedColumns(contentValues);
+    }
 
-        // Row ID of the newly inserted row, or -1 if an error occurred
-        long rowId = database.insert(ProductEntry.TABLE_NAME, null, contentValues);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (rowId == -1) {
-            Log.e(TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Checks that the image hash, if given, is one returned by the image store.
+     *
+     * @throws IllegalArgumentException if it is not
+     */
+    private static void validateImageHash(ContentValues contentValues) {
+        String imageHash = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE_HASH);
+        if (imageHash != null && !ImageStore.isHash(imageHash)) {
+            throw new IllegalArgumentException("Invalid image hash " + imageHash);
         }
+    }
 
-        // Notify all listeners that data has changed for content URI
-        // Passing null, by default will notify CursorAdapter object of changes
-        getContext().getContentResolver().notifyChange(uri, null);
-
-        return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, rowId);
+    /**
+     * Checks that no value is given for the columns the database computes.
+     *
+     * @throws IllegalArgumentException if one is
+     */
+    private static void validateComputedColumns(ContentValues contentValues) {
+        if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_STOCK_VALUE)) {
+            throw new IllegalArgumentException("Stock value is computed from price and quantity");
+        }
     }
 
     /**
@@ -193,31 +1600,64 @@ public class InventoryProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        int rowsDeleted;
-
-        switch (sUriMatcher.match(uri)) {
-            // Delete all entries that match the selection and selection args
-            case PRODUCTS:
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            // Delete a specific entry in the products table
-            case PRODUCT_ID:
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Delete not supported for " + uri);
+        int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_DELETE, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            int rowsDeleted = deleteUri(match, uri, selection, selectionArgs);
+            rows = rowsDeleted;
+            return rowsDeleted;
+        } finally {
+            mSlowQueryLog.end(OPERATION_DELETE, stats.end(start, rows), rows);
         }
+    }
 
-        if (rowsDeleted != 0) {
-            // Notify all listeners that data has changed for content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Deletes from the URI the matcher gave the code for.
+     */
+    private int deleteUri(int match, Uri uri, String selection, String[] selectionArgs) {
+        if (match == SLOW_QUERIES) {
+            // The log is not in the database, and nobody listens for its changes
+            return mSlowQueryLog.clear();
         }
 
-        return rowsDeleted;
+        mWriteGate.readLock().lock();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            int rowsDeleted;
+
+            switch (match) {
+                // Delete all entries that match the selection and selection args
+                case PRODUCTS:
+                    mSlowQueryLog.noteDelete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    // Any product may have been deleted
+                    if (rowsDeleted != 0) {
+                        mProductCache.invalidateAll();
+                    }
+                    break;
+                // Delete a specific entry in the products table
+                case PRODUCT_ID:
+                    selection = ProductEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    mSlowQueryLog.noteDelete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                    mProductCache.invalidate(ContentUris.parseId(uri));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Delete not supported for " + uri);
+            }
+
+            if (rowsDeleted != 0) {
+                // Notify all listeners that products were removed
+                notifyTableChanged();
+            }
+
+            return rowsDeleted;
+        } finally {
+            mWriteGate.readLock().unlock();
+        }
     }
 
     /**
@@ -226,7 +1666,25 @@ public class InventoryProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues,
                       String selection, String[] selectionArgs) {
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_UPDATE, getUriName(match));
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            int rowsUpdated = updateUri(match, uri, contentValues, selection, selectionArgs);
+            rows = rowsUpdated;
+            return rowsUpdated;
+        } finally {
+            mSlowQueryLog.end(OPERATION_UPDATE, stats.end(start, rows), rows);
+        }
+    }
+
+    /**
+     * Updates the URI the matcher gave the code for.
+     */
+    private int updateUri(int match, Uri uri, ContentValues contentValues,
+                          String selection, String[] selectionArgs) {
+        switch (match) {
             // Update all entries that match the selection and selection args
             case PRODUCTS:
                 return updateProduct(uri, contentValues, selection, selectionArgs);
@@ -235,71 +1693,283 @@ public class InventoryProvider extends ContentProvider {
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            // Sell or restock a specific entry, the values are not used
+            case PRODUCT_SALE:
+            case PRODUCT_RESTOCK:
+                return adjustQuantity(uri) == -1 ? 0 : 1;
             default:
                 throw new IllegalArgumentException("Update not supported for " + uri);
         }
     }
 
-    private int updateProduct(Uri uri, ContentValues contentValues,
-                              String selection, String[] selectionArgs) {
-        // If the {@link ProductEntry#COLUMN_PRODUCT_Brand} key is present,
-        // check that the name value is not null.
-        if (contentValues.size() == 0) {
-            return 0;
+    /**
+     * Applies the sale or restock URI passed as arg and returns the new quantity.
+     */
+    private Bundle callAdjustQuantity(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Sale or restock URI required");
         }
 
-        // If products brand exists, check if model == null
-        if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_BRAND)) {
-            String productBrand = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND);
-            if (productBrand == null) {
-                throw new IllegalArgumentException("Products brand required");
-            }
+        Uri uri = Uri.parse(arg);
+        int match = sUriMatcher.match(uri);
+        if (match != PRODUCT_SALE && match != PRODUCT_RESTOCK) {
+            throw new IllegalArgumentException("Quantity change not supported for " + uri);
         }
 
-        // If product model exists, check if model == null
-        if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_MODEL)) {
-            String productModel = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_MODEL);
-            if (productModel == null) {
-                throw new IllegalArgumentException("Product model required");
+        Bundle result = new Bundle();
+        result.putLong(InventoryContract.EXTRA_QUANTITY, adjustQuantity(uri));
+        return result;
+    }
+
+    /**
+     * Sells or restocks a product with a single UPDATE statement, so the quantity is never read
+     * into Java and written back. Concurrent sales therefore can't overwrite each other.
+     *
+     * @return the new quantity, or -1 if the product does not exist or has not enough stock
+     */
+    private long adjustQuantity(Uri uri) {
+        mWriteGate.readLock().lock();
+        try {
+            boolean sale = sUriMatcher.match(uri) == PRODUCT_SALE;
+            long id = Long.parseLong(uri.getPathSegments().get(1));
+
+            // Number of units to sell or restock, 1 if not given
+            String deltaString = uri.getQueryParameter(InventoryContract.QUERY_PARAMETER_DELTA);
+            int delta = deltaString == null ? 1 : Integer.parseInt(deltaString);
+            if (delta <= 0) {
+                throw new IllegalArgumentException("Quantity change must be greater than 0");
             }
-        }
 
-        // If product price exists, check if price < 0
-        if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            String productPriceString = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_PRICE);
-            int productPrice = Integer.parseInt(productPriceString);
-            if (productPrice < 0) {
-                throw new IllegalArgumentException("Price must be greater than 0");
+            long quantity = -1;
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransactionNonExclusive();
+            SQLiteStatement statement = null;
+            try {
+                statement = database.compileStatement(sale ? SQL_SALE : SQL_RESTOCK);
+                statement.bindLong(1, delta);
+                statement.bindLong(2, id);
+                if (sale) {
+                    statement.bindLong(3, delta);
+                }
+
+                // Read back the new quantity in the same transaction if the row was changed
+                if (statement.executeUpdateDelete() != 0) {
+                    quantity = DatabaseUtils.longForQuery(database,
+                            "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+                                    " FROM " + ProductEntry.TABLE_NAME +
+                                    " WHERE " + ProductEntry._ID + " = ?",
+                            new String[] { String.valueOf(id) });
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                database.endTransaction();
             }
+
+            if (quantity != -1) {
+                // Only this product changed
+                mProductCache.invalidate(id);
+                notifyRowChanged(id);
+            }
+
+            return quantity;
+        } finally {
+            mWriteGate.readLock().unlock();
         }
+    }
+
+    private int updateProduct(Uri uri, ContentValues contentValues,
+                              String selection, String[] selectionArgs) {
+        mWriteGate.readLock().lock();
+        try {
+            // If the {@link ProductEntry#COLUMN_PRODUCT_Brand} key is present,
+            // check that the name value is not null.
+            if (contentValues.size() == 0) {
+                return 0;
+            }
+
+            // If products brand exists, check if model == null
+            if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_BRAND)) {
+                String productBrand = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND);
+                if (productBrand == null) {
+                    throw new IllegalArgumentException("Products brand required");
+                }
+            }
+
+            // If product model exists, check if model == null
+            if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_MODEL)) {
+                String productModel = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_MODEL);
+                if (productModel == null) {
+                    throw new IllegalArgumentException("Product model required");
+                }
+            }
+
+            // If product price exists, check if price < 0
+            if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+                String productPriceString = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_PRICE);
+                int productPrice = Integer.parseInt(productPriceString);
+                if (productPrice < 0) {
+                    throw new IllegalArgumentException("Price must be greater than 0");
+                }
+            }
+
+            // If product quantity exists, check if quantity < 0
+            if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+                String productQuantityString = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                int productQuantity = Integer.parseInt(productQuantityString);
+                if (productQuantity < 0) {
+                    throw new IllegalArgumentException("Quantity must be greater than 0");
+                }
+            }
+
+            // If reorder threshold exists, check if threshold < 0
+            if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD)) {
+                Integer reorderThreshold = contentValues.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD);
+                if (reorderThreshold == null || reorderThreshold < 0) {
+                    throw new IllegalArgumentException("Reorder threshold must be greater than 0");
+                }
+            }
 
-        // If product quantity exists, check if quantity < 0
-        if (contentValues.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
-            String productQuantityString = contentValues.getAsString(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            int productQuantity = Integer.parseInt(productQuantityString);
-            if (productQuantity < 0) {
-                throw new IllegalArgumentException("Quantity must be greater than 0");
+            // If supplier name exists, check if name == null
+            if (contentValues.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
+                String supplierName = contentValues.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
+                if (supplierName == null) {
+                    throw new IllegalArgumentException("Supplier name required");
+                }
             }
+
+            validateImageHash(contentValues);
+            validateComputedColumns(contentValues);
+
+            // Get db reference, then update db and get number of rows affected
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            mSlowQueryLog.noteUpdate(ProductEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            int rowsUpdated = database.update(ProductEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+
+            if (rowsUpdated != 0) {
+                // Notify all listeners which product changed, or that any may have if a selection was used
+                if (sUriMatcher.match(uri) == PRODUCT_ID) {
+                    mProductCache.invalidate(ContentUris.parseId(uri));
+                    notifyRowChanged(ContentUris.parseId(uri));
+                } else {
+                    mProductCache.invalidateAll();
+                    notifyTableChanged();
+                }
+            }
+
+            // Return the number of rows updated
+            return rowsUpdated;
+        } finally {
+            mWriteGate.readLock().unlock();
         }
+    }
+
+    /**
+     * Apply all operations in a single transaction, so either the whole batch is stored or none
+     * of it is. Operations marked with {@link ContentProviderOperation#isYieldAllowed()} are safe
+     * points where the work so far may be committed to let other threads use the database.
+     * Listeners are notified once per commit instead of once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // The operations of the batch are counted by their own entry points as well
+        ProviderMetrics.Stats stats = mMetrics.get(OPERATION_APPLY_BATCH, URI_NAME_BATCH);
+        long start = stats.begin();
+        long rows = ProviderMetrics.FAILED;
+        try {
+            ContentProviderResult[] results = applyOperations(operations);
+            rows = results.length;
+            return results;
+        } finally {
+            stats.end(start, rows);
+        }
+    }
+
+    /**
+     * Applies the operations of the batch in a single transaction.
+     */
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mWriteGate.readLock().lock();
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            ChangeNotifier.Changes changes = new ChangeNotifier.Changes();
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
 
-        // If supplier name exists, check if name == null
-        if (contentValues.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)) {
-            String supplierName = contentValues.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Supplier name required");
+            mBatchChanges.set(changes);
+            // Rows read by other threads until the batch is committed may be out of date
+            mProductCache.beginBatch();
+            database.beginTransactionNonExclusive();
+            try {
+                for (int i = 0; i < operations.size(); i++) {
+                    ContentProviderOperation operation = operations.get(i);
+
+                    // If another thread is waiting for the database, commit what we have so far and
+                    // let it run before continuing with the rest of the batch
+                    if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                        postChanges(changes);
+                        changes.clear();
+                    }
+
+                    results[i] = operation.apply(this, results, i);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mProductCache.endBatch();
+                mBatchChanges.remove();
             }
+
+            // Everything is committed, notify the listeners
+            postChanges(changes);
+
+            return results;
+        } finally {
+            mWriteGate.readLock().unlock();
         }
+    }
 
-        // Get db reference, then update db and get number of rows affected
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+    /**
+     * Sends committed changes to the listeners, and to the snapshot being taken if there is one.
+     */
+    private void postChanges(ChangeNotifier.Changes changes) {
+        InventoryBackup backup = mBackup;
+        if (backup != null) {
+            backup.onCommitted(changes);
+        }
+        mChangeNotifier.post(changes);
+    }
 
-        if (rowsUpdated != 0) {
-            // Notify all listeners that data has changed for content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Notify all listeners that the values of a single product changed. While a batch is being
+     * applied on this thread the notification is held back until the batch is committed.
+     */
+    private void notifyRowChanged(long id) {
+        ChangeNotifier.Changes changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.rowChanged(id);
+        } else {
+            changes = new ChangeNotifier.Changes();
+            changes.rowChanged(id);
+            postChanges(changes);
         }
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Notify all listeners that products were inserted or deleted, or that an unknown set of
+     * products changed.
+     */
+    private void notifyTableChanged() {
+        ChangeNotifier.Changes changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.tableChanged();
+        } else {
+            changes = new ChangeNotifier.Changes();
+            changes.tableChanged();
+            postChanges(changes);
+        }
     }
 }
@@ -0,0 +1,116 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.util.LruCache;
+
+/**
+ * Bounded cache of recently read product rows, used by {@link InventoryProvider} to answer
+ * single product queries without going to the database.
+ *
+ * A row read from the database is only stored if no write happened while it was being read,
+ * which is tracked with a generation number that every write increments. This way a reader
+ * that raced with a writer can never put an old row back into the cache after the writer
+ * removed it.
+ */
+class ProductCache {
+
+    /** Values of every cached row, in the order of the columns passed to the constructor */
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Incremented by every write, see {@link #getGeneration()} */
+    private long mGeneration;
+
+    /** Number of batches being applied. Nothing is stored while one is open. */
+    private int mOpenBatches;
+
+    private long mHits;
+
+    private long mMisses;
+
+    /**
+     * @param maxRows the maximum number of rows to keep
+     */
+    ProductCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Returns the cached values of the product, or null if it is not cached.
+     */
+    synchronized Object[] get(long id) {
+        Object[] row = mRows.get(id);
+        if (row != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return row;
+    }
+
+    /**
+     * Returns the current generation. Read it before querying the database and pass it to
+     * {@link #put(long, Object[], long)} with the result.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Stores the values of a product that were read from the database, unless the product may
+     * have changed since the given generation.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration && mOpenBatches == 0) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Removes a product that was updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Removes every product, for writes that may have changed any row.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    /**
+     * Called before a batch starts. Rows read while it is open may be replaced by the batch when
+     * it commits, so they are not stored.
+     */
+    synchronized void beginBatch() {
+        mGeneration++;
+        mOpenBatches++;
+    }
+
+    /**
+     * Called once a batch has been committed or rolled back.
+     */
+    synchronized void endBatch() {
+        mGeneration++;
+        mOpenBatches--;
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    synchronized int size() {
+        return mRows.size();
+    }
+
+    synchronized int maxSize() {
+        return mRows.maxSize();
+    }
+}
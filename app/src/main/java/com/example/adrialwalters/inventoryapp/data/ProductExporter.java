@@ -0,0 +1,173 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes all products to a stream as CSV or JSON lines. Products are read by id in pages of
+ * {@link #PAGE_SIZE} and each row is written as soon as it is read, so at most one page and
+ * the write buffer are held in memory however many products there are.
+ */
+class ProductExporter {
+
+    /** Number of products read per query */
+    static final int PAGE_SIZE = 500;
+
+    /** Size of the buffer in front of the stream */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Columns written, in this order */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD,
+            ProductEntry.COLUMN_SUPPLIER_NAME,
+            ProductEntry.COLUMN_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_STRING_IMAGE_URI};
+
+    private final SQLiteDatabase mDatabase;
+
+    private final boolean mJson;
+
+    /**
+     * @param format {@link InventoryContract#FORMAT_CSV} or {@link InventoryContract#FORMAT_JSONL}
+     */
+    ProductExporter(SQLiteDatabase database, String format) {
+        mDatabase = database;
+        mJson = InventoryContract.FORMAT_JSONL.equals(format);
+    }
+
+    /**
+     * Returns true if the format is supported.
+     */
+    static boolean isSupportedFormat(String format) {
+        return InventoryContract.FORMAT_CSV.equals(format) || InventoryContract.FORMAT_JSONL.equals(format);
+    }
+
+    /**
+     * Returns the MIME type of the format.
+     */
+    static String getMimeType(String format) {
+        return InventoryContract.FORMAT_JSONL.equals(format)
+                ? InventoryContract.MIME_TYPE_JSONL : InventoryContract.MIME_TYPE_CSV;
+    }
+
+    /**
+     * Writes every product to the stream and closes it. Products added or changed while the
+     * export runs may or may not be included, since every page is read separately.
+     *
+     * @throws IOException if the stream can't be written, for instance because the reader
+     * closed its end of the pipe
+     */
+    void writeTo(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BUFFER_SIZE);
+        try {
+            if (!mJson) {
+                writeCsvHeader(writer);
+            }
+
+            long lastId = 0;
+            int rowCount;
+            do {
+                rowCount = 0;
+                Cursor cursor = mDatabase.query(ProductEntry.TABLE_NAME, COLUMNS,
+                        ProductEntry._ID + " > ?", new String[] { String.valueOf(lastId) },
+                        null, null, ProductEntry._ID, String.valueOf(PAGE_SIZE));
+                try {
+                    while (cursor.moveToNext()) {
+                        if (mJson) {
+                            writeJsonRow(writer, cursor);
+                        } else {
+                            writeCsvRow(writer, cursor);
+                        }
+                        lastId = cursor.getLong(0);
+                        rowCount++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rowCount == PAGE_SIZE);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes the row as described in RFC 4180. Fields containing a comma, quote or line break
+     * are quoted, and NULL is written as an empty field.
+     */
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (cursor.isNull(i)) {
+                continue;
+            }
+
+            String value = cursor.getString(i);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes the row as a single line JSON object. Numbers are written as numbers.
+     */
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(JSONObject.quote(COLUMNS[i]));
+            writer.write(':');
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.write(String.valueOf(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(String.valueOf(cursor.getDouble(i)));
+                    break;
+                default:
+                    writer.write(JSONObject.quote(cursor.getString(i)));
+                    break;
+            }
+        }
+        writer.write("}\n");
+    }
+}
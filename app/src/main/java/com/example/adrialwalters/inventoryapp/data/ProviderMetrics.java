@@ -0,0 +1,222 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and row counts of the operations of {@link InventoryProvider}, kept per operation and
+ * URI. Every sample goes into a histogram with a bucket per power of two microseconds, so
+ * recording one is a few atomic increments and the percentiles are read from the buckets.
+ * They are upper bounds, at most twice the real value.
+ *
+ * Each operation is also a {@link Trace} section, so it shows up in systrace.
+ */
+class ProviderMetrics {
+
+    /** Rows passed for an operation that threw */
+    static final long FAILED = -1;
+
+    /** Bucket i holds the samples below 2^i microseconds, the last one everything longer */
+    private static final int BUCKET_COUNT = 32;
+
+    /** The metrics of every operation and URI seen so far, by operation and URI */
+    private final ConcurrentMap<String, ConcurrentMap<String, Stats>> mStats = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metrics of the operation on the URI, created on first use.
+     *
+     * @param operation the entry point, e.g. "query"
+     * @param uriName   the name of the URI pattern, or of the call method
+     */
+    Stats get(String operation, String uriName) {
+        ConcurrentMap<String, Stats> byUri = mStats.get(operation);
+        if (byUri == null) {
+            byUri = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Stats> existing = mStats.putIfAbsent(operation, byUri);
+            if (existing != null) {
+                byUri = existing;
+            }
+        }
+
+        Stats stats = byUri.get(uriName);
+        if (stats == null) {
+            stats = new Stats(operation, uriName);
+            Stats existing = byUri.putIfAbsent(uriName, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Writes a line per operation and URI, in the order of their names.
+     */
+    void dump(PrintWriter writer) {
+        List<Stats> all = getAll();
+        writer.println("Operations (latency in microseconds, percentiles are upper bounds):");
+        writer.println(String.format(Locale.US, "  %-12s %-16s %8s %6s %8s %8s %8s %10s %8s",
+                "operation", "uri", "count", "errors", "p50", "p99", "max", "avg rows", "max rows"));
+        for (Stats stats : all) {
+            long count = stats.mCount.get();
+            writer.println(String.format(Locale.US, "  %-12s %-16s %8d %6d %8d %8d %8d %10.1f %8d",
+                    stats.mOperation, stats.mUriName, count, stats.mErrors.get(),
+                    stats.getPercentileMicros(50), stats.getPercentileMicros(99),
+                    stats.mMaxNanos.get() / 1000,
+                    count > 0 ? (double) stats.mRows.get() / count : 0.0, stats.mMaxRows.get()));
+        }
+    }
+
+    /**
+     * Returns a bundle per operation and URI, keyed by both names separated by a space.
+     */
+    Bundle toBundle() {
+        Bundle result = new Bundle();
+        for (Stats stats : getAll()) {
+            Bundle bundle = new Bundle();
+            bundle.putLong(InventoryContract.EXTRA_METRICS_COUNT, stats.mCount.get());
+            bundle.putLong(InventoryContract.EXTRA_METRICS_ERRORS, stats.mErrors.get());
+            bundle.putLong(InventoryContract.EXTRA_METRICS_P50_US, stats.getPercentileMicros(50));
+            bundle.putLong(InventoryContract.EXTRA_METRICS_P99_US, stats.getPercentileMicros(99));
+            bundle.putLong(InventoryContract.EXTRA_METRICS_MAX_US, stats.mMaxNanos.get() / 1000);
+            bundle.putLong(InventoryContract.EXTRA_METRICS_ROWS, stats.mRows.get());
+            bundle.putLong(InventoryContract.EXTRA_METRICS_MAX_ROWS, stats.mMaxRows.get());
+            result.putBundle(stats.mOperation + " " + stats.mUriName, bundle);
+        }
+        return result;
+    }
+
+    private List<Stats> getAll() {
+        List<String> operations = new ArrayList<>(mStats.keySet());
+        Collections.sort(operations);
+
+        List<Stats> all = new ArrayList<>();
+        for (String operation : operations) {
+            ConcurrentMap<String, Stats> byUri = mStats.get(operation);
+            List<String> uriNames = new ArrayList<>(byUri.keySet());
+            Collections.sort(uriNames);
+            for (String uriName : uriNames) {
+                all.add(byUri.get(uriName));
+            }
+        }
+        return all;
+    }
+
+    /**
+     * The metrics of one operation on one URI. Safe to record from any number of threads.
+     */
+    static class Stats {
+
+        private final String mOperation;
+
+        private final String mUriName;
+
+        /** Name of the trace section, made once since sections are started on every call */
+        private final String mSection;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private final AtomicLong mCount = new AtomicLong();
+
+        private final AtomicLong mErrors = new AtomicLong();
+
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        private final AtomicLong mRows = new AtomicLong();
+
+        private final AtomicLong mMaxRows = new AtomicLong();
+
+        private Stats(String operation, String uriName) {
+            mOperation = operation;
+            mUriName = uriName;
+            mSection = "InventoryProvider." + operation + " " + uriName;
+        }
+
+        /**
+         * Starts the trace section of the operation and returns the start time to pass to
+         * {@link #end(long, long)}, which must be called on the same thread.
+         */
+        long begin() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.beginSection(mSection);
+            }
+            return System.nanoTime();
+        }
+
+        /**
+         * Ends the trace section and records the sample.
+         *
+         * @param rows the number of rows returned or changed, or {@link #FAILED}
+         * @return the time the operation took, in nanoseconds
+         */
+        long end(long startNanos, long rows) {
+            long nanos = System.nanoTime() - startNanos;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+
+            mBuckets.incrementAndGet(getBucket(nanos / 1000));
+            mCount.incrementAndGet();
+            updateMax(mMaxNanos, nanos);
+            if (rows == FAILED) {
+                mErrors.incrementAndGet();
+            } else {
+                mRows.addAndGet(rows);
+                updateMax(mMaxRows, rows);
+            }
+            return nanos;
+        }
+
+        /**
+         * Returns the latency that the given percent of the samples stayed below, rounded up
+         * to a power of two, or 0 if there are no samples.
+         */
+        long getPercentileMicros(int percent) {
+            long count = 0;
+            long[] buckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            // Rank of the sample at the percentile, counted from 1
+            long rank = Math.max(1, (count * percent + 99) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+
+        private static int getBucket(long micros) {
+            return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+
+        private static void updateMax(AtomicLong max, long value) {
+            long current;
+            while (value > (current = max.get())) {
+                if (max.compareAndSet(current, value)) {
+                    return;
+                }
+            }
+        }
+    }
+}
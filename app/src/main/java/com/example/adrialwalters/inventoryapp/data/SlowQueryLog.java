@@ -0,0 +1,301 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.SlowQueryEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps the statements of {@link InventoryProvider} that took longer than a threshold, with
+ * their query plan, in a ring buffer of {@link SlowQueryEntry#MAX_ENTRIES} entries.
+ *
+ * The provider notes the statement it is about to run with one of the note methods, and reports
+ * the time the whole call took with {@link #end}. Only calls over the threshold are explained
+ * and kept. While the log is off the note methods return right away, without building any SQL.
+ */
+class SlowQueryLog {
+
+    private static final String TAG = SlowQueryLog.class.getSimpleName();
+
+    /** Every column of the log, in the order the values of an entry are kept */
+    private static final String[] COLUMNS = {
+            SlowQueryEntry._ID,
+            SlowQueryEntry.COLUMN_TIME,
+            SlowQueryEntry.COLUMN_OPERATION,
+            SlowQueryEntry.COLUMN_SQL,
+            SlowQueryEntry.COLUMN_ARGUMENTS,
+            SlowQueryEntry.COLUMN_DURATION_US,
+            SlowQueryEntry.COLUMN_ROW_COUNT,
+            SlowQueryEntry.COLUMN_QUERY_PLAN};
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** Calls taking at least this long are kept, or -1 while the log is off */
+    private volatile long mThresholdNanos = -1;
+
+    /** The statement of the call running on the current thread, or null */
+    private final ThreadLocal<Statement> mStatement = new ThreadLocal<>();
+
+    /** The values of the kept entries, oldest first */
+    private final ArrayDeque<Object[]> mEntries = new ArrayDeque<>(SlowQueryEntry.MAX_ENTRIES);
+
+    /** Id of the next entry */
+    private long mNextId = 1;
+
+    SlowQueryLog(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Turns the log on for calls taking at least the given time, or off for a negative time.
+     */
+    void setThresholdMillis(long thresholdMs) {
+        mThresholdNanos = thresholdMs < 0 ? -1 : thresholdMs * 1000000;
+    }
+
+    /**
+     * Returns the threshold in milliseconds, or -1 if the log is off.
+     */
+    long getThresholdMillis() {
+        long thresholdNanos = mThresholdNanos;
+        return thresholdNanos < 0 ? -1 : thresholdNanos / 1000000;
+    }
+
+    boolean isEnabled() {
+        return mThresholdNanos >= 0;
+    }
+
+    /**
+     * Notes a statement whose SQL was already built.
+     */
+    void noteStatement(String sql, String[] args) {
+        if (isEnabled()) {
+            mStatement.set(new Statement(sql, args));
+        }
+    }
+
+    /**
+     * Notes a query of a single table, as {@link SQLiteDatabase#query} builds it.
+     */
+    void noteQuery(String table, String[] projection, String selection, String[] selectionArgs,
+                   String orderBy, String limit) {
+        if (isEnabled()) {
+            noteStatement(SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                    null, null, orderBy, limit), selectionArgs);
+        }
+    }
+
+    /**
+     * Notes an update, as {@link SQLiteDatabase#update} builds it.
+     */
+    void noteUpdate(String table, ContentValues values, String selection, String[] selectionArgs) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        List<String> args = new ArrayList<>();
+        for (String column : values.keySet()) {
+            if (!args.isEmpty()) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ?");
+            Object value = values.get(column);
+            args.add(value != null ? String.valueOf(value) : null);
+        }
+        appendWhere(sql, selection);
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                args.add(arg);
+            }
+        }
+        noteStatement(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Notes a delete, as {@link SQLiteDatabase#delete} builds it.
+     */
+    void noteDelete(String table, String selection, String[] selectionArgs) {
+        if (isEnabled()) {
+            StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+            appendWhere(sql, selection);
+            noteStatement(sql.toString(), selectionArgs);
+        }
+    }
+
+    /**
+     * Ends the call running on the current thread, and keeps its statement if the call took at
+     * least the threshold.
+     *
+     * @param operation the entry point of the provider
+     * @param nanos     the time the call took
+     * @param rows      the rows returned or changed, or {@link ProviderMetrics#FAILED}
+     */
+    void end(String operation, long nanos, long rows) {
+        Statement statement = mStatement.get();
+        if (statement == null) {
+            return;
+        }
+        mStatement.remove();
+
+        long thresholdNanos = mThresholdNanos;
+        if (thresholdNanos < 0 || nanos < thresholdNanos) {
+            return;
+        }
+
+        String plan = explain(statement);
+        Log.w(TAG, operation + " took " + nanos / 1000000 + " ms for " + rows + " rows: " +
+                statement.sql + "\n" + plan);
+        synchronized (mEntries) {
+            if (mEntries.size() == SlowQueryEntry.MAX_ENTRIES) {
+                mEntries.removeFirst();
+            }
+            mEntries.addLast(new Object[] { mNextId++, System.currentTimeMillis(), operation,
+                    statement.sql, describeArguments(statement.args), nanos / 1000, rows, plan });
+        }
+    }
+
+    /**
+     * Returns the kept entries with the columns of the projection, newest first.
+     */
+    Cursor query(String[] projection) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = indexOf(columns[i]);
+        }
+
+        synchronized (mEntries) {
+            MatrixCursor cursor = new MatrixCursor(columns, mEntries.size());
+            Iterator<Object[]> entries = mEntries.descendingIterator();
+            while (entries.hasNext()) {
+                Object[] entry = entries.next();
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = entry[indexes[i]];
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+    }
+
+    /**
+     * Drops every entry and returns how many there were.
+     */
+    int clear() {
+        synchronized (mEntries) {
+            int count = mEntries.size();
+            mEntries.clear();
+            return count;
+        }
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for the statement and returns the detail of each line. The
+     * arguments are bound since SQLite may plan differently for them.
+     */
+    private String explain(Statement statement) {
+        String[] args = null;
+        if (statement.args != null) {
+            // Null can't be bound through rawQuery, and any value gives the same plan for it
+            args = new String[statement.args.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = statement.args[i] != null ? statement.args[i] : "";
+            }
+        }
+
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + statement.sql, args);
+            try {
+                int detailColumnIndex = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detailColumnIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            // The statement itself failed, keep why
+            return "Cannot explain: " + e.getMessage();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Describes the kind of each argument, without the values, which may be user data.
+     */
+    static String describeArguments(String[] args) {
+        if (args == null || args.length == 0) {
+            return "";
+        }
+
+        StringBuilder description = new StringBuilder();
+        for (String arg : args) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            if (arg == null) {
+                description.append("null");
+            } else if (isNumber(arg)) {
+                description.append("number");
+            } else {
+                description.append("text(").append(arg.length()).append(")");
+            }
+        }
+        return description.toString();
+    }
+
+    private static boolean isNumber(String arg) {
+        try {
+            Double.parseDouble(arg);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void appendWhere(StringBuilder sql, String selection) {
+        if (selection != null && !selection.isEmpty()) {
+            sql.append(" WHERE ").append(selection);
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+
+    /**
+     * A statement noted by the provider.
+     */
+    private static final class Statement {
+        final String sql;
+        final String[] args;
+
+        Statement(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+}
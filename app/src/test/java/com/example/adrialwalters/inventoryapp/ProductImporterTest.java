@@ -0,0 +1,215 @@
+package com.example.adrialwalters.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Reads CSV records and resumes interrupted imports with {@link ProductImporter} on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ProductImporterTest {
+
+    private static final Uri SOURCE = Uri.parse("content://com.example.files/catalog.csv");
+
+    /** More than two batches */
+    private static final int RECORDS = ProductImporter.BATCH_SIZE * 2 + 100;
+
+    /** Runs the import on the test thread */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ContentResolver mResolver;
+
+    private ProductImporter.Progress mFinished;
+
+    private Exception mFailure;
+
+    private final ProductImporter.Listener mListener = new ProductImporter.Listener() {
+        @Override
+        public void onProgress(ProductImporter.Progress progress) {
+        }
+
+        @Override
+        public void onFinished(ProductImporter.Progress progress) {
+            mFinished = progress;
+        }
+
+        @Override
+        public void onFailed(ProductImporter.Progress progress, Exception e) {
+            mFailure = e;
+        }
+
+        @Override
+        public void onInterruptedImportFound(Uri source) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase("inventory.db");
+        Robolectric.setupContentProvider(InventoryProvider.class);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        RuntimeEnvironment.application.deleteDatabase("inventory.db");
+    }
+
+    @Test
+    public void csvReader_readsQuotedFields() throws Exception {
+        ProductImporter.CsvReader csv = newCsvReader(
+                "plain,\"with, comma\",\"say \"\"hi\"\"\",,\"\"\n");
+
+        assertEquals(Arrays.asList("plain", "with, comma", "say \"hi\"", "", ""), csv.readRecord());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void csvReader_countsLinesOfMultiLineRecords() throws Exception {
+        ProductImporter.CsvReader csv = newCsvReader(
+                "a,\"first line\nsecond line\"\n\nb,c\n");
+
+        assertEquals(Arrays.asList("a", "first line\nsecond line"), csv.readRecord());
+        assertEquals(1, csv.getRecordLineNumber());
+
+        // The blank line is skipped, but still counted
+        assertEquals(Arrays.asList("b", "c"), csv.readRecord());
+        assertEquals(4, csv.getRecordLineNumber());
+        assertNull(csv.readRecord());
+    }
+
+    @Test(expected = IOException.class)
+    public void csvReader_rejectsUnterminatedQuote() throws Exception {
+        newCsvReader("a,\"never closed\nb,c\n").readRecord();
+    }
+
+    @Test
+    public void import_insertsAllRecordsAndReportsRejects() {
+        String csv = buildCsv(1, RECORDS).replace("Model 7,", ",");
+        importFile(csv);
+
+        assertNull(mFailure);
+        assertEquals(RECORDS, mFinished.recordCount);
+        assertEquals(RECORDS - 1, mFinished.insertedCount);
+        assertEquals(1, mFinished.rejectedCount);
+        // The header is line 1
+        assertTrue(mFinished.rejects.get(0), mFinished.rejects.get(0).startsWith("Line 8:"));
+        assertEquals(RECORDS - 1, countProducts(null));
+        assertFalse(hasCheckpoint());
+    }
+
+    @Test
+    public void import_resumesAfterCommittedRecords() {
+        // An earlier run committed its first batch together with the checkpoint, then died
+        ContentValues[] firstBatch = new ContentValues[ProductImporter.BATCH_SIZE];
+        for (int i = 0; i < firstBatch.length; i++) {
+            firstBatch[i] = newProduct(i + 1);
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(InventoryContract.EXTRA_VALUES, firstBatch);
+        extras.putString(InventoryContract.EXTRA_IMPORT_SOURCE, SOURCE.toString());
+        extras.putLong(InventoryContract.EXTRA_IMPORT_RECORD_COUNT, firstBatch.length);
+        mResolver.call(ProductEntry.CONTENT_URI, InventoryContract.METHOD_BULK_INSERT, null, extras);
+        assertTrue(hasCheckpoint());
+
+        importFile(buildCsv(1, RECORDS));
+
+        assertNull(mFailure);
+        assertEquals(RECORDS, mFinished.recordCount);
+        assertEquals(RECORDS - ProductImporter.BATCH_SIZE, mFinished.insertedCount);
+        // Every record is in the database exactly once
+        assertEquals(RECORDS, countProducts(null));
+        assertEquals(1, countProducts("Model " + ProductImporter.BATCH_SIZE));
+        assertEquals(1, countProducts("Model " + (ProductImporter.BATCH_SIZE + 1)));
+        assertFalse(hasCheckpoint());
+    }
+
+    private void importFile(String csv) {
+        shadowOf(mResolver).registerInputStream(SOURCE,
+                new ByteArrayInputStream(csv.getBytes(Charset.forName("UTF-8"))));
+        ProductImporter importer = new ProductImporter(mResolver, DIRECT_EXECUTOR);
+        importer.setListener(mListener);
+        importer.start(SOURCE);
+        ShadowLooper.idleMainLooper();
+        assertFalse(importer.isRunning());
+    }
+
+    private static ProductImporter.CsvReader newCsvReader(String text) {
+        return new ProductImporter.CsvReader(new BufferedReader(new StringReader(text)));
+    }
+
+    /**
+     * Returns a CSV file with a header and the products from first to last.
+     */
+    private static String buildCsv(int first, int last) {
+        StringBuilder csv = new StringBuilder("brand,model,price,quantity,supplier\n");
+        for (int i = first; i <= last; i++) {
+            csv.append("Brand,Model ").append(i).append(",10,").append(i).append(",Supplier\n");
+        }
+        return csv.toString();
+    }
+
+    private static ContentValues newProduct(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand");
+        values.put(ProductEntry.COLUMN_PRODUCT_MODEL, "Model " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        return values;
+    }
+
+    /**
+     * Returns the number of products, or of those with the given model if not null.
+     */
+    private int countProducts(String model) {
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[] { ProductEntry._ID },
+                model != null ? ProductEntry.COLUMN_PRODUCT_MODEL + " = ?" : null,
+                model != null ? new String[] { model } : null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean hasCheckpoint() {
+        Bundle checkpoint = mResolver.call(ProductEntry.CONTENT_URI,
+                InventoryContract.METHOD_GET_IMPORT_CHECKPOINT, null, null);
+        return checkpoint.containsKey(InventoryContract.EXTRA_IMPORT_SOURCE);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Makes up products with a {@link CatalogGenerator} and checks they are repeatable and valid.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CatalogGeneratorTest {
+
+    private static final String PACKAGE_NAME = "com.example.adrialwalters.inventoryapp";
+
+    @Test
+    public void sameSeed_givesSameProducts() {
+        ContentValues[] first = new CatalogGenerator(PACKAGE_NAME, 7).next(100);
+        ContentValues[] second = new CatalogGenerator(PACKAGE_NAME, 7).next(100);
+        ContentValues[] other = new CatalogGenerator(PACKAGE_NAME, 8).next(100);
+
+        assertArrayEquals(first, second);
+        assertFalse(Arrays.equals(first, other));
+    }
+
+    @Test
+    public void products_haveValidValues() {
+        int outOfStock = 0;
+        int withImage = 0;
+        for (ContentValues product : new CatalogGenerator(PACKAGE_NAME, 1).next(1000)) {
+            assertFalse(product.getAsString(ProductEntry.COLUMN_PRODUCT_BRAND).isEmpty());
+            assertFalse(product.getAsString(ProductEntry.COLUMN_PRODUCT_MODEL).isEmpty());
+            assertTrue(product.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME).length() > 0);
+            assertTrue(product.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL).contains("@"));
+            assertTrue(product.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE) >= 1);
+            assertTrue(product.getAsInteger(ProductEntry.COLUMN_PRODUCT_REORDER_THRESHOLD) >= 0);
+
+            int quantity = product.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            assertTrue(quantity >= 0);
+            if (quantity == 0) {
+                outOfStock++;
+            }
+
+            String imageUri = product.getAsString(ProductEntry.COLUMN_STRING_IMAGE_URI);
+            if (imageUri != null) {
+                assertTrue(imageUri.startsWith("android.resource://" + PACKAGE_NAME + "/"));
+                withImage++;
+            }
+        }
+
+        // Some of each, without asserting the exact shares
+        assertTrue(outOfStock > 0 && outOfStock < 1000);
+        assertTrue(withImage > 0 && withImage < 1000);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Takes, verifies and restores snapshots with {@link InventoryBackup} on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class InventoryBackupTest {
+
+    /** More than two copy steps */
+    private static final int ROWS = InventoryBackup.STEP_SIZE * 2 + 50;
+
+    private Context mContext;
+
+    private InventoryDbHelper mDbHelper;
+
+    private SQLiteDatabase mDatabase;
+
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        mDbHelper = new InventoryDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        for (int i = 1; i <= ROWS; i++) {
+            insertProduct(i);
+        }
+        mSnapshotFile = new File(mContext.getFilesDir(), "snapshot.db");
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        SQLiteDatabase.deleteDatabase(mSnapshotFile);
+    }
+
+    @Test
+    public void snapshot_copiesAllProducts() throws Exception {
+        InventoryBackup.Result result = newBackup().snapshot(mSnapshotFile);
+
+        assertEquals(ROWS, result.rowCount);
+        assertEquals(ROWS, InventoryBackup.verify(mSnapshotFile));
+    }
+
+    @Test
+    public void snapshot_copiesUpdatesCommittedWithInserts() throws Exception {
+        // The commit lands just before the last catch-up pass holds writers back
+        final InventoryBackup[] backup = new InventoryBackup[1];
+        final Lock writeLock = new ReentrantLock() {
+            @Override
+            public void lock() {
+                if (!isLocked()) {
+                    updateAndInsert(backup[0]);
+                }
+                super.lock();
+            }
+        };
+        final Lock readLock = new ReentrantLock();
+        backup[0] = new InventoryBackup(mDatabase, new ReadWriteLock() {
+            @Override
+            public Lock readLock() {
+                return readLock;
+            }
+
+            @Override
+            public Lock writeLock() {
+                return writeLock;
+            }
+        });
+
+        InventoryBackup.Result result = backup[0].snapshot(mSnapshotFile);
+
+        assertEquals(ROWS + 1, result.rowCount);
+        SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(mSnapshotFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(999, DatabaseUtils.longForQuery(snapshot, "SELECT " +
+                    ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM products WHERE _id = 1", null));
+            assertEquals(ROWS + 1, DatabaseUtils.queryNumEntries(snapshot, ProductEntry.TABLE_NAME));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void restore_replacesProductsAndStatistics() throws Exception {
+        newBackup().snapshot(mSnapshotFile);
+        mDatabase.delete(ProductEntry.TABLE_NAME, null, null);
+        insertProduct(ROWS + 1);
+
+        InventoryBackup.Result result = newBackup().restore(mSnapshotFile);
+
+        assertEquals(ROWS, result.rowCount);
+        assertEquals(ROWS, DatabaseUtils.queryNumEntries(mDatabase, ProductEntry.TABLE_NAME));
+        assertEquals(ROWS, DatabaseUtils.longForQuery(mDatabase,
+                "SELECT " + StatsEntry.COLUMN_SKU_COUNT + " FROM " + StatsEntry.TABLE_NAME, null));
+
+        // Ids handed out after the snapshot are not reused
+        insertProduct(ROWS + 2);
+        assertEquals(ROWS + 2, DatabaseUtils.longForQuery(mDatabase, "SELECT MAX(_id) FROM products", null));
+    }
+
+    @Test(expected = IOException.class)
+    public void verify_rejectsOtherDatabaseVersion() throws Exception {
+        newBackup().snapshot(mSnapshotFile);
+        SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(mSnapshotFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        snapshot.setVersion(InventoryDbHelper.DATABASE_VERSION + 1);
+        snapshot.close();
+
+        InventoryBackup.verify(mSnapshotFile);
+    }
+
+    private InventoryBackup newBackup() {
+        return new InventoryBackup(mDatabase, new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Updates an existing product and inserts a new one in one commit, and reports it the way
+     * the provider does, where the insert hides the updated id.
+     */
+    private void updateAndInsert(InventoryBackup backup) {
+        mDatabase.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 999);
+            mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + " = 1", null);
+            insertProduct(ROWS + 1);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        ChangeNotifier.Changes changes = new ChangeNotifier.Changes();
+        changes.rowChanged(1);
+        changes.tableChanged();
+        backup.onCommitted(changes);
+    }
+
+    private void insertProduct(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand " + (i % 10));
+        values.put(ProductEntry.COLUMN_PRODUCT_MODEL, "Model " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i * 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % 7));
+        mDatabase.insert(ProductEntry.TABLE_NAME, null, values);
+    }
+}
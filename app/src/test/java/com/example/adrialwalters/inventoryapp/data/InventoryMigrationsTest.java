@@ -0,0 +1,248 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades a populated version 5 database through {@link InventoryMigrations} on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class InventoryMigrationsTest {
+
+    /** Schema of the products table as it was shipped in version 5 */
+    private static final String SQL_CREATE_PRODUCTS_TABLE_V5 =
+            "CREATE TABLE products(" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "brand TEXT NOT NULL, " +
+                    "model TEXT NOT NULL, " +
+                    "price INTEGER DEFAULT 0, " +
+                    "quantity INTEGER DEFAULT 0, " +
+                    "image STRING, " +
+                    "supplier TEXT NOT NULL, " +
+                    "email TEXT);";
+
+    private static final int V5_ROWS = 250;
+
+    private Context mContext;
+
+    private InventoryDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void migrations_areOrderedAndEndAtDatabaseVersion() throws Exception {
+        int expectedVersion = InventoryMigrations.BASE_VERSION + 1;
+        for (InventoryMigrations.Migration migration : InventoryMigrations.MIGRATIONS) {
+            assertEquals(expectedVersion, migration.version);
+            expectedVersion++;
+        }
+        assertEquals(InventoryDbHelper.DATABASE_VERSION, expectedVersion - 1);
+    }
+
+    @Test
+    public void upgradeFromVersion5_keepsProductsAndAddsIndexes() throws Exception {
+        createVersion5Database();
+
+        mDbHelper = new InventoryDbHelper(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        assertEquals(InventoryDbHelper.DATABASE_VERSION, database.getVersion());
+        assertEquals(V5_ROWS, DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME));
+
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME, null, ProductEntry._ID + " = ?",
+                new String[] { "42" }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Brand 2", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_BRAND)));
+            assertEquals("Model 42", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_MODEL)));
+            assertEquals(42, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+            assertEquals(420 * 42, cursor.getLong(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_STOCK_VALUE)));
+        } finally {
+            cursor.close();
+        }
+
+        // Statistics are computed from the existing products: quantity and price are i and i * 10
+        cursor = database.query(StatsEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(V5_ROWS, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_SKU_COUNT)));
+            assertEquals(V5_ROWS * (V5_ROWS + 1) / 2,
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_UNIT_COUNT)));
+            assertEquals(0, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_OUT_OF_STOCK_COUNT)));
+        } finally {
+            cursor.close();
+        }
+
+        Set<String> indexes = indexNames(database);
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_BRAND));
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_MODEL));
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_SUPPLIER));
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_PRICE));
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_QUANTITY));
+        assertTrue(indexes.contains(InventoryMigrations.INDEX_PRODUCTS_STOCK_VALUE));
+    }
+
+    @Test
+    public void stockValue_followsPriceAndQuantity() throws Exception {
+        mDbHelper = new InventoryDbHelper(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        database.execSQL("INSERT INTO products (brand, model, price, quantity, supplier) " +
+                "VALUES ('Brand', 'Model', 25, 4, 'Supplier')");
+        assertEquals(100, stockValue(database));
+
+        database.execSQL("UPDATE products SET quantity = quantity - 1");
+        assertEquals(75, stockValue(database));
+
+        database.execSQL("UPDATE products SET price = 30");
+        assertEquals(90, stockValue(database));
+    }
+
+    @Test
+    public void sortIndexes_avoidTemporaryBTree() throws Exception {
+        mDbHelper = new InventoryDbHelper(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // A filter on another column must not make SQLite sort the rows of its index instead
+        String[][] sortIndexes = {
+                { InventoryMigrations.INDEX_PRODUCTS_PRICE, ProductEntry.COLUMN_PRODUCT_PRICE },
+                { InventoryMigrations.INDEX_PRODUCTS_QUANTITY, ProductEntry.COLUMN_PRODUCT_QUANTITY },
+                { InventoryMigrations.INDEX_PRODUCTS_STOCK_VALUE, ProductEntry.COLUMN_PRODUCT_STOCK_VALUE }};
+        for (String[] sortIndex : sortIndexes) {
+            String index = sortIndex[0];
+            String column = sortIndex[1];
+            for (String direction : new String[] { "", " DESC" }) {
+                String plan = queryPlan(database, "SELECT _id FROM products INDEXED BY " + index +
+                        " WHERE supplier = 'Supplier 1' AND price >= 10 AND quantity <= 5" +
+                        " ORDER BY " + column + direction + ", _id" + direction + " LIMIT 50");
+                assertFalse(plan, plan.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    @Test
+    public void upgradedSchema_matchesNewlyCreatedSchema() throws Exception {
+        createVersion5Database();
+        mDbHelper = new InventoryDbHelper(mContext);
+        Set<String> upgraded = schema(mDbHelper.getReadableDatabase());
+        mDbHelper.close();
+
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        mDbHelper = new InventoryDbHelper(mContext);
+        Set<String> created = schema(mDbHelper.getReadableDatabase());
+
+        assertEquals(created, upgraded);
+    }
+
+    private static long stockValue(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database,
+                "SELECT " + ProductEntry.COLUMN_PRODUCT_STOCK_VALUE + " FROM products", null);
+    }
+
+    private static String queryPlan(SQLiteDatabase database, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Writes a version 5 database file with {@link #V5_ROWS} products.
+     */
+    private void createVersion5Database() {
+        File file = mContext.getDatabasePath(InventoryDbHelper.DATABASE_NAME);
+        file.getParentFile().mkdirs();
+
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            database.execSQL(SQL_CREATE_PRODUCTS_TABLE_V5);
+            database.beginTransaction();
+            try {
+                for (int i = 1; i <= V5_ROWS; i++) {
+                    database.execSQL("INSERT INTO products (brand, model, price, quantity, supplier, email) " +
+                                    "VALUES (?, ?, ?, ?, ?, ?)",
+                            new Object[] { "Brand " + (i % 10), "Model " + i, i * 10, i,
+                                    "Supplier " + (i % 7), "supplier" + (i % 7) + "@example.com" });
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            database.setVersion(5);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static Set<String> indexNames(SQLiteDatabase database) {
+        Set<String> names = new HashSet<>();
+        Cursor cursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?",
+                new String[] { ProductEntry.TABLE_NAME });
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Type, name and SQL of every schema object, ignoring Android and SQLite internal tables.
+     */
+    private static Set<String> schema(SQLiteDatabase database) {
+        Set<String> objects = new HashSet<>();
+        Cursor cursor = database.rawQuery(
+                "SELECT type, name, sql FROM sqlite_master " +
+                        "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                objects.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return objects;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sells and restocks products through {@link InventoryProvider} on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class InventoryProviderTest {
+
+    private Context mContext;
+
+    private InventoryProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        mProvider = Robolectric.setupContentProvider(InventoryProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void sale_subtractsDeltaAndReturnsQuantity() {
+        long id = insertProduct(5);
+
+        assertEquals(2, adjustQuantity(ProductEntry.buildSaleUri(id, 3)));
+        assertEquals(2, storedQuantity(id));
+    }
+
+    @Test
+    public void sale_isRefusedWithoutEnoughStock() {
+        long id = insertProduct(2);
+
+        // Nothing is sold if there isn't enough stock for all of it
+        assertEquals(-1, adjustQuantity(ProductEntry.buildSaleUri(id, 3)));
+        assertEquals(2, storedQuantity(id));
+
+        assertEquals(0, adjustQuantity(ProductEntry.buildSaleUri(id, 2)));
+        assertEquals(-1, adjustQuantity(ProductEntry.buildSaleUri(id, 1)));
+        assertEquals(0, mProvider.update(ProductEntry.buildSaleUri(id, 1), null, null, null));
+        assertEquals(0, storedQuantity(id));
+    }
+
+    @Test
+    public void restock_addsDelta() {
+        long id = insertProduct(0);
+
+        assertEquals(1, mProvider.update(ProductEntry.buildRestockUri(id, 4), null, null, null));
+        assertEquals(4, storedQuantity(id));
+        assertEquals(5, adjustQuantity(ProductEntry.buildRestockUri(id, 1)));
+    }
+
+    @Test
+    public void adjustMissingProduct_returnsMinusOne() {
+        assertEquals(-1, adjustQuantity(ProductEntry.buildRestockUri(42, 1)));
+        assertEquals(-1, adjustQuantity(ProductEntry.buildSaleUri(42, 1)));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void imageOfMissingProduct_isNotFound() throws Exception {
+        mProvider.openFile(ProductEntry.buildImageUri(42, "0123456789abcdef0123456789abcdef01234567"), "r");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void adjustByZero_isRejected() {
+        adjustQuantity(ProductEntry.buildSaleUri(insertProduct(5), 0));
+    }
+
+    private long insertProduct(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_BRAND, "Brand");
+        values.put(ProductEntry.COLUMN_PRODUCT_MODEL, "Model");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private long adjustQuantity(Uri uri) {
+        Bundle result = mProvider.call(InventoryContract.METHOD_ADJUST_QUANTITY, uri.toString(), null);
+        return result.getLong(InventoryContract.EXTRA_QUANTITY);
+    }
+
+    private long storedQuantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
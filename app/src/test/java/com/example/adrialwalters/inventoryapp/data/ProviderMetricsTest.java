@@ -0,0 +1,68 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.os.Bundle;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records samples with {@link ProviderMetrics} and reads the percentiles back.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ProviderMetricsTest {
+
+    @Test
+    public void percentiles_areUpperBoundsOfTheSamples() {
+        ProviderMetrics metrics = new ProviderMetrics();
+        ProviderMetrics.Stats stats = metrics.get("query", "products");
+
+        // 98 samples of about 1 ms and 2 of about 100 ms
+        for (int i = 0; i < 98; i++) {
+            record(stats, 1000, 10);
+        }
+        record(stats, 100000, 10);
+        record(stats, 100000, 10);
+
+        long p50 = stats.getPercentileMicros(50);
+        long p99 = stats.getPercentileMicros(99);
+        assertTrue("p50 " + p50, p50 >= 1000 && p50 < 4000);
+        assertTrue("p99 " + p99, p99 >= 100000 && p99 < 400000);
+    }
+
+    @Test
+    public void failures_areCountedWithoutRows() {
+        ProviderMetrics metrics = new ProviderMetrics();
+        record(metrics.get("update", "product"), 10, 1);
+        record(metrics.get("update", "product"), 10, ProviderMetrics.FAILED);
+        record(metrics.get("query", "unknown"), 10, ProviderMetrics.FAILED);
+
+        Bundle result = metrics.toBundle();
+        Bundle update = result.getBundle("update product");
+        assertEquals(2, update.getLong(InventoryContract.EXTRA_METRICS_COUNT));
+        assertEquals(1, update.getLong(InventoryContract.EXTRA_METRICS_ERRORS));
+        assertEquals(1, update.getLong(InventoryContract.EXTRA_METRICS_ROWS));
+        assertEquals(1, result.getBundle("query unknown").getLong(InventoryContract.EXTRA_METRICS_ERRORS));
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(new PrintWriter(dump));
+        assertTrue(dump.toString().contains("unknown"));
+    }
+
+    /**
+     * Records a sample that took at least the given time.
+     */
+    private static void record(ProviderMetrics.Stats stats, long micros, long rows) {
+        long start = stats.begin();
+        stats.end(start - micros * 1000, rows);
+    }
+}
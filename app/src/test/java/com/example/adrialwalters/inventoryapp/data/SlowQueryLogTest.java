@@ -0,0 +1,101 @@
+package com.example.adrialwalters.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.adrialwalters.inventoryapp.BuildConfig;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.SlowQueryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keeps statements in a {@link SlowQueryLog} and reads them back on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SlowQueryLogTest {
+
+    private Context mContext;
+
+    private InventoryDbHelper mDbHelper;
+
+    private SlowQueryLog mLog;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+        mDbHelper = new InventoryDbHelper(mContext);
+        mLog = new SlowQueryLog(mDbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(InventoryDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void slowStatement_isKeptWithPlanButWithoutValues() {
+        mLog.setThresholdMillis(10);
+        mLog.noteQuery(ProductEntry.TABLE_NAME, null, ProductEntry.COLUMN_SUPPLIER_NAME + " = ?",
+                new String[] { "Secret supplier" }, ProductEntry.COLUMN_PRODUCT_BRAND, null);
+        mLog.end("query", 20 * 1000000L, 7);
+
+        Cursor cursor = mLog.query(null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getCount());
+            assertEquals("query", cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_OPERATION)));
+            assertEquals("text(15)", cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ARGUMENTS)));
+            assertEquals(20000, cursor.getLong(cursor.getColumnIndex(SlowQueryEntry.COLUMN_DURATION_US)));
+            assertEquals(7, cursor.getLong(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ROW_COUNT)));
+            assertTrue(cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_SQL))
+                    .contains(ProductEntry.COLUMN_SUPPLIER_NAME + " = ?"));
+            assertTrue(cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_QUERY_PLAN)).length() > 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void fastStatementsAndDisabledLog_keepNothing() {
+        mLog.noteDelete(ProductEntry.TABLE_NAME, null, null);
+        mLog.end("delete", 20 * 1000000L, 1);
+
+        mLog.setThresholdMillis(10);
+        mLog.noteDelete(ProductEntry.TABLE_NAME, null, null);
+        mLog.end("delete", 5 * 1000000L, 1);
+
+        assertEquals(0, mLog.clear());
+    }
+
+    @Test
+    public void fullLog_dropsOldestEntries() {
+        mLog.setThresholdMillis(0);
+        for (int i = 0; i < SlowQueryEntry.MAX_ENTRIES + 10; i++) {
+            mLog.noteDelete(ProductEntry.TABLE_NAME, ProductEntry._ID + " = ?",
+                    new String[] { String.valueOf(i) });
+            mLog.end("delete", 1000, 0);
+        }
+
+        Cursor cursor = mLog.query(new String[] { SlowQueryEntry._ID });
+        try {
+            assertEquals(SlowQueryEntry.MAX_ENTRIES, cursor.getCount());
+            // Newest first
+            assertTrue(cursor.moveToFirst());
+            assertEquals(SlowQueryEntry.MAX_ENTRIES + 10, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.adrialwalters.inventoryapp.benchmark;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Collects the timings of the benchmark and writes them as one JSON file per run, so runs of
+ * different releases can be compared by a script.
+ *
+ * The file holds the device and app version, and a result per catalog size and operation with
+ * the number of calls and their min, median, p90, p99, max and mean in nanoseconds.
+ */
+class BenchmarkReport {
+
+    private static final String TAG = BenchmarkReport.class.getSimpleName();
+
+    /** Increased whenever the layout of the file changes */
+    private static final int FORMAT_VERSION = 1;
+
+    private final JSONArray mResults = new JSONArray();
+
+    /**
+     * Adds the timings of one operation.
+     *
+     * @param catalogSize number of products in the database while the operation ran
+     * @param operation   name of the operation
+     * @param rowsPerCall number of rows each call inserted, read or changed
+     * @param nanos       time of each call, in any order
+     */
+    void add(int catalogSize, String operation, int rowsPerCall, long[] nanos) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+
+        try {
+            JSONObject result = new JSONObject();
+            result.put("catalog_size", catalogSize);
+            result.put("operation", operation);
+            result.put("rows_per_call", rowsPerCall);
+            result.put("calls", sorted.length);
+            result.put("min_ns", sorted[0]);
+            result.put("median_ns", percentile(sorted, 50));
+            result.put("p90_ns", percentile(sorted, 90));
+            result.put("p99_ns", percentile(sorted, 99));
+            result.put("max_ns", sorted[sorted.length - 1]);
+            result.put("mean_ns", total / sorted.length);
+            mResults.put(result);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Log.i(TAG, String.format(Locale.US, "%,d products, %s: median %,d ns, p99 %,d ns over %d calls",
+                catalogSize, operation, percentile(sorted, 50), percentile(sorted, 99), sorted.length));
+    }
+
+    /**
+     * Writes the results into a new file in the benchmark folder of the app, which can be pulled
+     * with adb, and returns the file.
+     */
+    File write(Context targetContext) throws IOException {
+        File folder = targetContext.getExternalFilesDir("benchmark");
+        if (folder == null) {
+            folder = new File(targetContext.getFilesDir(), "benchmark");
+        }
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder);
+        }
+        File file = new File(folder, "inventory-" +
+                new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".json");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson(targetContext).toString(2));
+        } catch (JSONException e) {
+            throw new IOException("Cannot write results: " + e.getMessage());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private JSONObject toJson(Context targetContext) throws JSONException {
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk_int", Build.VERSION.SDK_INT);
+        device.put("fingerprint", Build.FINGERPRINT);
+
+        JSONObject report = new JSONObject();
+        report.put("format_version", FORMAT_VERSION);
+        report.put("timestamp_ms", System.currentTimeMillis());
+        report.put("app_version", getAppVersion(targetContext));
+        report.put("device", device);
+        report.put("results", mResults);
+        return report;
+    }
+
+    private static String getAppVersion(Context targetContext) {
+        try {
+            return targetContext.getPackageManager()
+                    .getPackageInfo(targetContext.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
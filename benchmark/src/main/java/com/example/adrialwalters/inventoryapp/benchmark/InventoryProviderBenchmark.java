@@ -0,0 +1,341 @@
+package com.example.adrialwalters.inventoryapp.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.adrialwalters.inventoryapp.data.CatalogGenerator;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract;
+import com.example.adrialwalters.inventoryapp.data.InventoryContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of the data layer. Fills the database through {@link ProductEntry#CONTENT_URI} to
+ * each catalog size in turn and times the provider calls the app makes, from the resolver to
+ * the last row read:
+ * <ul>
+ *     <li>bulk inserts of {@link #BULK_INSERT_SIZE} products while filling the catalog</li>
+ *     <li>single inserts</li>
+ *     <li>lookups of a single product on products/#</li>
+ *     <li>the first page of the list and the whole list, with the projection of the list</li>
+ *     <li>updates of the quantity of a single product</li>
+ *     <li>deletes of a single product</li>
+ * </ul>
+ *
+ * The products are made up by {@link CatalogGenerator}, so the indexes see values spread like
+ * those of a real shop. The results are written by {@link BenchmarkReport}. The catalog sizes are read from the
+ * catalogSizes instrumentation argument, 1k, 100k and 1M products if not given.
+ *
+ * The benchmark runs on the app's own database, so the products already in it are backed up
+ * before the run and restored after it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryProviderBenchmark {
+
+    private static final String TAG = InventoryProviderBenchmark.class.getSimpleName();
+
+    /** Instrumentation argument with the catalog sizes, separated by commas */
+    private static final String ARGUMENT_CATALOG_SIZES = "catalogSizes";
+
+    private static final String DEFAULT_CATALOG_SIZES = "1000,100000,1000000";
+
+    /** Products inserted per bulk insert while filling the catalog */
+    private static final int BULK_INSERT_SIZE = 1000;
+
+    /** Calls of each operation that are timed, after the warm-up calls */
+    private static final int CALLS = 500;
+
+    /** Calls of each operation before the timing starts, to fill caches and compile statements */
+    private static final int WARM_UP_CALLS = 50;
+
+    /** Rows in the first page of the list */
+    private static final int PAGE_SIZE = 50;
+
+    /** Full list reads per catalog size, fewer for large catalogs since each read takes long */
+    private static final int MAX_LIST_CALLS = 20;
+    private static final int MIN_LIST_CALLS = 3;
+
+    /** Same random ids and values in every run, so runs can be compared */
+    private static final long SEED = 42;
+
+    /** The columns the product list reads */
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_BRAND,
+            ProductEntry.COLUMN_PRODUCT_MODEL,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_STRING_IMAGE_URI,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_HASH};
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private BenchmarkReport mReport;
+
+    private Random mRandom;
+
+    private CatalogGenerator mGenerator;
+
+    /** Backup of the app's products, restored after the run */
+    private File mSnapshot;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mReport = new BenchmarkReport();
+        mRandom = new Random(SEED);
+        mGenerator = new CatalogGenerator(mContext.getPackageName(), SEED);
+
+        // A run that was killed left its backup behind, its products go back first
+        File snapshot = new File(mContext.getFilesDir(), TAG + "-products.db");
+        if (snapshot.exists()) {
+            callWithSnapshot(InventoryContract.METHOD_RESTORE, snapshot);
+        }
+        callWithSnapshot(InventoryContract.METHOD_BACKUP, snapshot);
+        mSnapshot = snapshot;
+    }
+
+    @After
+    public void tearDown() {
+        if (mSnapshot != null) {
+            callWithSnapshot(InventoryContract.METHOD_RESTORE, mSnapshot);
+            SQLiteDatabase.deleteDatabase(mSnapshot);
+        }
+    }
+
+    @Test
+    public void providerOperations() throws Exception {
+        String catalogSizes = InstrumentationRegistry.getArguments().getString(ARGUMENT_CATALOG_SIZES);
+        for (String catalogSize : (catalogSizes != null ? catalogSizes : DEFAULT_CATALOG_SIZES).split(",")) {
+            benchmarkCatalog(Integer.parseInt(catalogSize.trim()));
+        }
+
+        File file = mReport.write(mContext);
+        Log.i(TAG, "Results written to " + file);
+    }
+
+    private void benchmarkCatalog(int catalogSize) {
+        mResolver.delete(ProductEntry.CONTENT_URI, null, null);
+        fillCatalog(catalogSize);
+        long[] ids = readIds(catalogSize);
+
+        long[] insertedIds = benchmarkInserts(catalogSize);
+        benchmarkLookups(catalogSize, ids);
+        benchmarkFirstPage(catalogSize);
+        benchmarkList(catalogSize);
+        benchmarkQuantityUpdates(catalogSize, ids);
+        benchmarkDeletes(catalogSize, insertedIds);
+    }
+
+    /**
+     * Fills the empty catalog with bulk inserts, timing each of them.
+     */
+    private void fillCatalog(int catalogSize) {
+        int calls = (catalogSize + BULK_INSERT_SIZE - 1) / BULK_INSERT_SIZE;
+        long[] nanos = new long[calls];
+        for (int call = 0; call < calls; call++) {
+            ContentValues[] products = mGenerator.next(
+                    Math.min(BULK_INSERT_SIZE, catalogSize - call * BULK_INSERT_SIZE));
+
+            long start = System.nanoTime();
+            int inserted = mResolver.bulkInsert(ProductEntry.CONTENT_URI, products);
+            nanos[call] = System.nanoTime() - start;
+            assertEquals(products.length, inserted);
+        }
+        mReport.add(catalogSize, "bulk_insert", BULK_INSERT_SIZE, nanos);
+    }
+
+    /**
+     * Returns the ids of all products, in order.
+     */
+    private long[] readIds(int catalogSize) {
+        long[] ids = new long[catalogSize];
+        Cursor cursor = mResolver.query(ProductEntry.CONTENT_URI, new String[] { ProductEntry._ID },
+                null, null, ProductEntry._ID);
+        assertNotNull(cursor);
+        try {
+            assertEquals(catalogSize, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Inserts products one at a time and returns their ids, so they can be deleted again.
+     */
+    private long[] benchmarkInserts(int catalogSize) {
+        long[] ids = new long[WARM_UP_CALLS + CALLS];
+        long[] nanos = new long[CALLS];
+        for (int call = 0; call < ids.length; call++) {
+            ContentValues product = mGenerator.next();
+
+            long start = System.nanoTime();
+            Uri uri = mResolver.insert(ProductEntry.CONTENT_URI, product);
+            long time = System.nanoTime() - start;
+
+            assertNotNull(uri);
+            ids[call] = ContentUris.parseId(uri);
+            if (call >= WARM_UP_CALLS) {
+                nanos[call - WARM_UP_CALLS] = time;
+            }
+        }
+        mReport.add(catalogSize, "insert", 1, nanos);
+        return ids;
+    }
+
+    /**
+     * Reads random products with all their columns, as the editor does.
+     */
+    private void benchmarkLookups(int catalogSize, long[] ids) {
+        long[] nanos = new long[CALLS];
+        for (int call = -WARM_UP_CALLS; call < CALLS; call++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[mRandom.nextInt(ids.length)]);
+
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(uri, null, null, null, null);
+            assertNotNull(cursor);
+            try {
+                assertTrue(cursor.moveToFirst());
+                readRow(cursor);
+            } finally {
+                cursor.close();
+            }
+            if (call >= 0) {
+                nanos[call] = System.nanoTime() - start;
+            }
+        }
+        mReport.add(catalogSize, "lookup", 1, nanos);
+    }
+
+    /**
+     * Reads the first page of the list, as the list does when it is opened.
+     */
+    private void benchmarkFirstPage(int catalogSize) {
+        long[] nanos = new long[CALLS];
+        for (int call = -WARM_UP_CALLS; call < CALLS; call++) {
+            long start = System.nanoTime();
+            int rows = readAll(ProductEntry.buildPageUri(0, PAGE_SIZE));
+            if (call >= 0) {
+                nanos[call] = System.nanoTime() - start;
+            }
+            assertEquals(Math.min(PAGE_SIZE, catalogSize + WARM_UP_CALLS + CALLS), rows);
+        }
+        mReport.add(catalogSize, "first_page", PAGE_SIZE, nanos);
+    }
+
+    /**
+     * Reads every product of the list in a single query.
+     */
+    private void benchmarkList(int catalogSize) {
+        int rowCount = catalogSize + WARM_UP_CALLS + CALLS;
+        long[] nanos = new long[Math.max(MIN_LIST_CALLS, Math.min(MAX_LIST_CALLS, 2000000 / rowCount))];
+        // A single warm-up read, it already takes long on large catalogs
+        readAll(ProductEntry.CONTENT_URI);
+        for (int call = 0; call < nanos.length; call++) {
+            long start = System.nanoTime();
+            int rows = readAll(ProductEntry.CONTENT_URI);
+            nanos[call] = System.nanoTime() - start;
+            assertEquals(rowCount, rows);
+        }
+        mReport.add(catalogSize, "list", rowCount, nanos);
+    }
+
+    /**
+     * Sets the quantity of random products, as the editor saves a changed quantity.
+     */
+    private void benchmarkQuantityUpdates(int catalogSize, long[] ids) {
+        long[] nanos = new long[CALLS];
+        for (int call = -WARM_UP_CALLS; call < CALLS; call++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[mRandom.nextInt(ids.length)]);
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, mRandom.nextInt(100));
+
+            long start = System.nanoTime();
+            int updated = mResolver.update(uri, values, null, null);
+            long time = System.nanoTime() - start;
+
+            assertEquals(1, updated);
+            if (call >= 0) {
+                nanos[call] = time;
+            }
+        }
+        mReport.add(catalogSize, "update_quantity", 1, nanos);
+    }
+
+    /**
+     * Deletes the products inserted one at a time, so the catalog is back to its size.
+     */
+    private void benchmarkDeletes(int catalogSize, long[] ids) {
+        long[] nanos = new long[CALLS];
+        for (int call = 0; call < ids.length; call++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[call]);
+
+            long start = System.nanoTime();
+            int deleted = mResolver.delete(uri, null, null);
+            long time = System.nanoTime() - start;
+
+            assertEquals(1, deleted);
+            if (call >= WARM_UP_CALLS) {
+                nanos[call - WARM_UP_CALLS] = time;
+            }
+        }
+        mReport.add(catalogSize, "delete", 1, nanos);
+    }
+
+    /**
+     * Reads every row of the query with the list projection, like binding them, and returns
+     * the number of rows.
+     */
+    private int readAll(Uri uri) {
+        Cursor cursor = mResolver.query(uri, LIST_PROJECTION, null, null, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                readRow(cursor);
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Backs up to or restores from the snapshot file, failing if the provider reports an error.
+     */
+    private void callWithSnapshot(String method, File snapshot) {
+        Bundle result = mResolver.call(ProductEntry.CONTENT_URI, method, snapshot.getPath(), null);
+        assertNotNull(result);
+        assertNull(method + " of " + snapshot + " failed",
+                result.getString(InventoryContract.EXTRA_ERROR));
+    }
+
+    private static void readRow(Cursor cursor) {
+        for (int column = 0; column < cursor.getColumnCount(); column++) {
+            cursor.getString(column);
+        }
+    }
+}